@@ -0,0 +1,80 @@
+/* Copyright © 2022 Matthew Wilson
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0
+ * which is available at:
+ * http://www.eclipse.org/legal/epl-2.0
+ * or the GNU General Public License v3.0 or later
+ * which is available at:
+ * https://www.gnu.org/licenses/gpl-3.0.en.html
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-3.0-or-later
+ */
+package phodopus.video.benchmark;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import phodopus.video.And;
+import phodopus.video.Cube;
+
+/**
+ * Checking and clearing a cube with half of its bits free, in a table that is
+ * all ones, so that every covered word is visited.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class AndBenchmark
+{
+    @Param( { "12", "16", "20" } )
+    public int bitCount;
+
+    private And and;
+
+    private long[] ones;
+
+    private long[] scratch;
+
+    @Setup
+    public void setUp()
+    {
+        int all = ( 1 << this.bitCount ) - 1;
+        // Alternate bits are free, so both word positions and word indices vary.
+        int interest = all & 0xAAAAAAAA;
+        this.and = And.of( Cube.of( interest, interest & 0x22222222 ) );
+
+        this.ones = new long[ ( ( 1 << this.bitCount ) + 63 ) >>> 6 ];
+        Arrays.fill( this.ones, -1L );
+        this.scratch = this.ones.clone();
+    }
+
+    @Benchmark
+    public boolean testAll()
+    {
+        return this.and.testAll( this.ones, this.bitCount );
+    }
+
+    @Benchmark
+    public long[] clearAll()
+    {
+        // Clearing costs the same whether or not the bits are already clear.
+        this.and.clearAll( this.scratch, this.bitCount );
+        return this.scratch;
+    }
+}
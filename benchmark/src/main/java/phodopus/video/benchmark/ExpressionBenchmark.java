@@ -0,0 +1,68 @@
+/* Copyright © 2022 Matthew Wilson
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0
+ * which is available at:
+ * http://www.eclipse.org/legal/epl-2.0
+ * or the GNU General Public License v3.0 or later
+ * which is available at:
+ * https://www.gnu.org/licenses/gpl-3.0.en.html
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-3.0-or-later
+ */
+package phodopus.video.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import phodopus.video.Expression;
+import phodopus.video.TruthTable;
+
+/**
+ * Evaluating a counter bit's expression for every input.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class ExpressionBenchmark
+{
+    @Param( { "12", "16", "20" } )
+    public int bitCount;
+
+    private Expression expression;
+
+    @Setup
+    public void setUp()
+    {
+        this.expression = TruthTable.create( "C", this.bitCount, i -> i + 1, this.bitCount / 2 ).optimise();
+    }
+
+    @Benchmark
+    public int evaluate()
+    {
+        int count = 0;
+        int size = 1 << this.bitCount;
+        for ( int i = 0; i < size; i++ )
+        {
+            if ( this.expression.evaluate( i ) )
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+}
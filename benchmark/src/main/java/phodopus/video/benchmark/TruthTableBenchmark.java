@@ -0,0 +1,103 @@
+/* Copyright © 2022 Matthew Wilson
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0
+ * which is available at:
+ * http://www.eclipse.org/legal/epl-2.0
+ * or the GNU General Public License v3.0 or later
+ * which is available at:
+ * https://www.gnu.org/licenses/gpl-3.0.en.html
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-3.0-or-later
+ */
+package phodopus.video.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import phodopus.video.Bdd;
+import phodopus.video.EspressoMinimiser;
+import phodopus.video.Expression;
+import phodopus.video.GreedyMinimiser;
+import phodopus.video.Minimiser;
+import phodopus.video.TruthTable;
+import phodopus.video.Util;
+
+/**
+ * Table construction and minimisation, on a counter: half the bits are the
+ * count, and the other half are outputs.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class TruthTableBenchmark
+{
+    @Param( { "12", "16", "20" } )
+    public int bitCount;
+
+    private TruthTable table;
+
+    @State( Scope.Benchmark )
+    public static class Minimisers
+    {
+        @Param( { "greedy", "espresso", "isop" } )
+        public String minimiser;
+
+        Minimiser instance;
+
+        @Setup
+        public void setUp()
+        {
+            this.instance = switch ( this.minimiser )
+            {
+                case "greedy" -> new GreedyMinimiser();
+                case "espresso" -> new EspressoMinimiser();
+                case "isop" -> Bdd::isop;
+                default -> throw new IllegalArgumentException( this.minimiser );
+            };
+        }
+    }
+
+    @Setup
+    public void setUp()
+    {
+        this.table = create();
+    }
+
+    @Benchmark
+    public TruthTable create()
+    {
+        return TruthTable.create( "C", this.bitCount, i -> i + 1, this.bitCount / 2 );
+    }
+
+    @Benchmark
+    public List< TruthTable > createMany()
+    {
+        int outputCount = this.bitCount / 2;
+        int mask = ( 1 << outputCount ) - 1;
+        return TruthTable.createMany( Util.bitRange( "I", this.bitCount - outputCount ),
+                                      Util.bitRange( "O", outputCount ),
+                                      i -> ( i + ( i >>> outputCount ) ) & mask );
+    }
+
+    @Benchmark
+    public Expression optimise( Minimisers minimisers )
+    {
+        return this.table.optimise( minimisers.instance );
+    }
+}
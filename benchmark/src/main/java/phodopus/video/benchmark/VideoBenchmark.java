@@ -0,0 +1,150 @@
+/* Copyright © 2022 Matthew Wilson
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0
+ * which is available at:
+ * http://www.eclipse.org/legal/epl-2.0
+ * or the GNU General Public License v3.0 or later
+ * which is available at:
+ * https://www.gnu.org/licenses/gpl-3.0.en.html
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-3.0-or-later
+ */
+package phodopus.video.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.ImmutableList;
+
+import phodopus.video.Chip;
+import phodopus.video.Display;
+import phodopus.video.Expression;
+import phodopus.video.Simulation;
+import phodopus.video.Simulation.Engine;
+import phodopus.video.TruthTable;
+import phodopus.video.Util;
+import phodopus.video.Video;
+
+/**
+ * Optimising each of the Video chips, and simulating a whole frame with each
+ * engine, with and without rendering it. The chips fix their own widths, so
+ * these are parameterised by chip, minimiser and engine instead.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class VideoBenchmark
+{
+    /**
+     * Cycles in a frame: 525 lines of 400 clocks.
+     */
+    private static final int FRAME = 525 * 400;
+
+    @State( Scope.Benchmark )
+    public static class Chips
+    {
+        @Param( { "hcounter", "vcounter", "hflags", "vflags", "addr0", "addr1", "pixelconv" } )
+        public String chip;
+
+        private List< TruthTable > tables;
+
+        @Setup
+        public void setUp()
+        {
+            this.tables = Video.tables().get( this.chip ).get();
+        }
+    }
+
+    @State( Scope.Benchmark )
+    public static class Frame
+    {
+        @Param( { "INTERPRETED", "TABLE", "GENERATED", "EVENT" } )
+        public Engine engine;
+
+        private Simulation.State start;
+
+        @Setup
+        public void setUp()
+        {
+            List< Chip > chips = Util.build( ImmutableList.copyOf( Video.chips().values() ) );
+            this.start = Simulation.create( chips, this.engine ).zeroState().with( "Clear", true ).next();
+        }
+    }
+
+    @State( Scope.Benchmark )
+    public static class Screen
+    {
+        @Param( { "TABLE", "GENERATED", "EVENT" } )
+        public Engine engine;
+
+        private Display display;
+
+        private Simulation.MutableState state;
+
+        @Setup
+        public void setUp()
+        {
+            List< Chip > chips = Util.build( ImmutableList.copyOf( Video.chips().values() ) );
+            Simulation simulation = Simulation.create( chips, this.engine )
+                                              .withMemory( "A", 15, "D", new byte[ Display.MEMORY_SIZE ] );
+            this.display = Display.create( simulation );
+            this.state = simulation.zeroState().with( "Clear", true ).next().toMutable();
+        }
+    }
+
+    /**
+     * Optimises the chip's tables, in parallel and checked as when the chip is
+     * built; see {@link TruthTableBenchmark#createMany()} for creating them.
+     */
+    @Benchmark
+    public List< Expression > optimise( Chips chips, TruthTableBenchmark.Minimisers minimisers )
+    {
+        return Util.optimise( chips.tables, minimisers.instance );
+    }
+
+    @Benchmark
+    public Simulation.State frame( Frame frame )
+    {
+        Simulation.State state = frame.start;
+        for ( int i = 0; i < FRAME; i++ )
+        {
+            state = state.next();
+        }
+        return state;
+    }
+
+    @Benchmark
+    public Simulation.MutableState frameMutable( Frame frame )
+    {
+        Simulation.MutableState state = frame.start.toMutable();
+        for ( int i = 0; i < FRAME; i++ )
+        {
+            state.next();
+        }
+        return state;
+    }
+
+    /**
+     * Renders a whole frame from video RAM; the reciprocal is the frame rate.
+     */
+    @Benchmark
+    public int[] displayFrame( Screen screen )
+    {
+        return screen.display.nextFrame( screen.state );
+    }
+}
@@ -12,33 +12,41 @@
  */
 package phodopus.video;
 
+import java.nio.LongBuffer;
 import java.util.BitSet;
 import java.util.List;
 import java.util.Locale;
-import java.util.Objects;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import com.google.common.collect.ImmutableList;
 
+/**
+ * A product term, held as a {@link Cube}. The list of {@link BitState}s is only
+ * materialised for formatting.
+ */
 public final class And implements Comparable< And >
 {
-    private final ImmutableList< BitState > bits;
-
     private final int interestMask;
 
     private final int setMask;
 
-    private And( ImmutableList< BitState > bits )
+    private And( int interestMask, int setMask )
     {
-        this.bits = Objects.requireNonNull( bits );
+        this.interestMask = interestMask;
+        this.setMask = setMask;
+
+        assert ( ~this.interestMask & this.setMask ) == 0;
+    }
 
+    public static And of( Iterable< BitState > bits )
+    {
         int im = 0;
         int sm = 0;
-        for ( int i = 0; i < bits.size(); i++ )
+        int bit = 1;
+        for ( BitState state : bits )
         {
-            int bit = 1 << i;
-            switch ( bits.get( i ) )
+            switch ( state )
             {
                 case TRUE ->
                 {
@@ -51,36 +59,58 @@ public final class And implements Comparable< And >
                     // nothing
                 }
             }
+            bit <<= 1;
         }
-        this.interestMask = im;
-        this.setMask = sm;
+        return new And( im, sm );
+    }
 
-        assert ( ~this.interestMask & this.setMask ) == 0;
+    public static And of( long cube )
+    {
+        return new And( Cube.interestMask( cube ), Cube.setMask( cube ) );
     }
 
-    public static And of( Iterable< BitState > bits )
+    public long cube()
     {
-        ImmutableList< BitState > list = ImmutableList.copyOf( bits );
-        while ( !list.isEmpty() && list.get( list.size() - 1 ) == BitState.DONT_CARE )
-        {
-            list = list.subList( 0, list.size() - 1 );
-        }
-        return new And( list );
+        return Cube.of( this.interestMask, this.setMask );
     }
 
-    public boolean contains( And other )
+    int interestMask()
     {
-        for ( int i = 0; i < other.bits.size(); i++ )
+        return this.interestMask;
+    }
+
+    int setMask()
+    {
+        return this.setMask;
+    }
+
+    /**
+     * @return the bits, up to and including the highest bit of interest
+     */
+    public List< BitState > bits()
+    {
+        return IntStream.range( 0, Cube.width( cube() ) )
+                        .mapToObj( this::bit )
+                        .collect( ImmutableList.toImmutableList() );
+    }
+
+    private BitState bit( int i )
+    {
+        if ( ( ( this.interestMask >>> i ) & 1 ) == 0 )
         {
-            BitState otherBit = other.bits.get( i );
-            BitState thisBit = i < this.bits.size() ? this.bits.get( i ) : BitState.DONT_CARE;
-            if ( thisBit != BitState.DONT_CARE && thisBit != otherBit )
-            {
-                return false;
-            }
+            return BitState.DONT_CARE;
         }
+        return ( ( this.setMask >>> i ) & 1 ) != 0 ? BitState.TRUE : BitState.FALSE;
+    }
 
-        return true;
+    /**
+     * @param other
+     *            another term
+     * @return whether every input matched by the other term is matched by this
+     */
+    public boolean contains( And other )
+    {
+        return Cube.contains( cube(), other.cube() );
     }
 
     public boolean test( int input )
@@ -93,7 +123,8 @@ public final class And implements Comparable< And >
      * have a 1 in the given table.
      * <p>
      * It does not check any combinations that do not match (that is, inputs that
-     * evaluate to 0).
+     * evaluate to 0). The table is tested in place, a run of consecutive
+     * matching inputs at a time.
      *
      * @param table
      *            the truth table
@@ -103,113 +134,185 @@ public final class And implements Comparable< And >
      */
     public boolean testAll( BitSet table, int bitCount )
     {
-        // The fewer bits used, the more combinations there are to check.
-        int usedBits = Integer.bitCount( this.interestMask );
-        int unusedBits = bitCount - usedBits;
-        int combinations = 1 << unusedBits;
-
-        for ( int combination = 0; combination < combinations; combination++ )
+        // The low don't-care bits vary fastest, giving runs of consecutive inputs.
+        int free = ~this.interestMask & ( ( 1 << bitCount ) - 1 );
+        int run = 1 << Integer.numberOfTrailingZeros( ~free );
+        int runFree = free & -run;
+        int x = 0;
+        do
         {
-            // Turn a combination into an input that yields 1 for this expression.
-            // Firstly, it must have all bits in setMask.
-            // Secondly, any bit not in interestMask must be set according to the
-            // combination.
-            int input = this.setMask;
-            int data = combination;
-            for ( int i = 0; i < bitCount; i++ )
+            int start = this.setMask | x;
+            if ( table.nextClearBit( start ) < start + run )
             {
-                int bit = 1 << i;
-
-                // Is this a DONT_CARE bit?
-                if ( ( this.interestMask & bit ) == 0 )
-                {
-                    input |= ( 1 << i ) * ( data & 1 );
-                    data >>>= 1;
-                }
-            }
-
-            // This must be a case that is covered.
-            assert ( input & this.interestMask ) == this.setMask;
-
-            if ( !table.get( input ) )
-            {
-                // It's a 0, so it's not good.
+                // There's a 0, so it's not good.
                 return false;
             }
+            x = ( x - runFree ) & runFree;
         }
+        while ( x != 0 );
 
         return true;
     }
 
-    public boolean clearAll( BitSet table, int bitCount )
+    /**
+     * Determines if all matching combinations (that is, inputs that evaluate to 1)
+     * have a 1 in the given table, a word at a time.
+     *
+     * @param words
+     *            the truth table, as from {@link BitSet#toLongArray()}; missing
+     *            trailing words are zero
+     * @param bitCount
+     *            the bit count of the table
+     * @return whether all match
+     */
+    public boolean testAll( long[] words, int bitCount )
     {
-        int end = 1 << bitCount;
+        return Cube.testAll( cube(), words, bitCount );
+    }
 
-        for ( int input = 0; input < end; input++ )
+    /**
+     * Clears all matching combinations (that is, inputs that evaluate to 1) in
+     * the given table, visiting only those combinations.
+     *
+     * @param table
+     *            the truth table
+     * @param bitCount
+     *            the bit count of the table
+     * @return true
+     */
+    public boolean clearAll( BitSet table, int bitCount )
+    {
+        int free = ~this.interestMask & ( ( 1 << bitCount ) - 1 );
+        int x = 0;
+        do
         {
-            if ( ( input & this.interestMask ) == this.setMask )
-            {
-                table.clear( input );
-            }
+            table.clear( this.setMask | x );
+            x = ( x - free ) & free;
         }
+        while ( x != 0 );
 
         return true;
     }
 
+    /**
+     * Sets all matching combinations (that is, inputs that evaluate to 1) in the
+     * given table, visiting only those combinations.
+     *
+     * @param table
+     *            the truth table
+     * @param bitCount
+     *            the bit count of the table
+     */
+    public void setAll( BitSet table, int bitCount )
+    {
+        int free = ~this.interestMask & ( ( 1 << bitCount ) - 1 );
+        int x = 0;
+        do
+        {
+            table.set( this.setMask | x );
+            x = ( x - free ) & free;
+        }
+        while ( x != 0 );
+    }
+
+    /**
+     * Clears all matching combinations (that is, inputs that evaluate to 1) in
+     * the given table, a word at a time.
+     *
+     * @param words
+     *            the truth table; missing trailing words are taken as zero
+     * @param bitCount
+     *            the bit count of the table
+     */
+    public void clearAll( long[] words, int bitCount )
+    {
+        Cube.clearAll( cube(), words, bitCount );
+    }
+
+    /**
+     * Sets all matching combinations (that is, inputs that evaluate to 1) in the
+     * given table, a word at a time.
+     *
+     * @param words
+     *            the truth table, with at least {@code ((1 << bitCount) + 63) / 64}
+     *            words
+     * @param bitCount
+     *            the bit count of the table
+     */
+    public void setAll( long[] words, int bitCount )
+    {
+        Cube.setAll( cube(), words, bitCount );
+    }
+
+    /**
+     * Determines if all matching combinations (that is, inputs that evaluate to 1)
+     * have a 1 in the given table, a word at a time.
+     *
+     * @param words
+     *            the truth table, such as from {@link MappedTruthTable#words()};
+     *            words from the limit on are zero
+     * @param bitCount
+     *            the bit count of the table
+     * @return whether all match
+     */
+    public boolean testAll( LongBuffer words, int bitCount )
+    {
+        return Cube.testAll( cube(), words, bitCount );
+    }
+
+    /**
+     * Clears all matching combinations (that is, inputs that evaluate to 1) in
+     * the given table, a word at a time.
+     *
+     * @param words
+     *            the truth table; words from the limit on are taken as zero
+     * @param bitCount
+     *            the bit count of the table
+     */
+    public void clearAll( LongBuffer words, int bitCount )
+    {
+        Cube.clearAll( cube(), words, bitCount );
+    }
+
     @Override
     public boolean equals( Object obj )
     {
-        return obj instanceof And and && and.bits.equals( this.bits );
+        return obj instanceof And and && and.interestMask == this.interestMask && and.setMask == this.setMask;
     }
 
     @Override
     public int hashCode()
     {
-        return this.bits.hashCode();
+        return Long.hashCode( cube() );
     }
 
     @Override
     public int compareTo( And o )
     {
         // If they aren't of the same size, earlier one is the one that has a higher bit.
-        int result = Integer.compare( o.bits.size(), this.bits.size() );
-        if ( result != 0 )
-        {
-            return result;
-        }
-
-        for ( int i = this.bits.size() - 1; i >= 0; i-- )
-        {
-            boolean tb = this.bits.get( i ) != BitState.DONT_CARE;
-            boolean to = o.bits.get( i ) != BitState.DONT_CARE;
-            if ( tb != to )
-            {
-                return tb ? -1 : 1;
-            }
-        }
-
-        return 0;
+        return Cube.compare( cube(), o.cube() );
     }
 
     @Override
     public String toString()
     {
-        return toString( IntStream.range( 0, this.bits.size() )
+        return toString( IntStream.range( 0, Cube.width( cube() ) )
                                   .mapToObj( i -> "B" + i )
                                   .toList() );
     }
 
     public String toString( List< String > bitNames )
     {
-        if ( this.bits.isEmpty() )
+        List< BitState > bits = bits();
+        if ( bits.isEmpty() )
         {
             return "[true]";
         }
 
-        return IntStream.range( 0, this.bits.size() )
+        return IntStream.range( 0, bits.size() )
                         // reverse order
-                        .map( i -> this.bits.size() - i - 1 )
-                        .mapToObj( i -> this.bits.get( i ).format( bitNames.get( i ) ) )
+                        .map( i -> bits.size() - i - 1 )
+                        .mapToObj( i -> bits.get( i ).format( bitNames.get( i ) ) )
                         .filter( string -> !string.isEmpty() )
                         .collect( Collectors.joining( " * " ) );
     }
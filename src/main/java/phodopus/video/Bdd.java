@@ -0,0 +1,527 @@
+/* Copyright © 2022 Matthew Wilson
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0
+ * which is available at:
+ * http://www.eclipse.org/legal/epl-2.0
+ * or the GNU General Public License v3.0 or later
+ * which is available at:
+ * https://www.gnu.org/licenses/gpl-3.0.en.html
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-3.0-or-later
+ */
+package phodopus.video;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Reduced ordered binary decision diagrams over input bits, as an alternative
+ * to enumerating every input of a {@link TruthTable}. Structured functions such
+ * as comparators take nodes in proportion to their width, not to the number of
+ * inputs.
+ * <p>
+ * Functions are {@code int} node handles belonging to one manager:
+ * {@link #FALSE}, {@link #TRUE}, or nodes made by its methods. The highest bit
+ * is tested first. Nodes are hash-consed in a unique table, so equal functions
+ * have equal handles, and binary operations are memoised in a direct-mapped
+ * cache. Nodes are never freed; a manager is meant to last for one batch of
+ * tables.
+ * <p>
+ * Not thread-safe.
+ */
+public final class Bdd
+{
+    public static final int FALSE = 0;
+
+    public static final int TRUE = 1;
+
+    private static final int TERMINAL = -1;
+
+    private static final int AND = 0;
+
+    private static final int OR = 1;
+
+    private static final int XOR = 2;
+
+    private static final int CACHE_SIZE = 1 << 16;
+
+    private int[] vars = new int[ 1024 ];
+
+    private int[] lows = new int[ 1024 ];
+
+    private int[] highs = new int[ 1024 ];
+
+    private int size;
+
+    /**
+     * Open-addressed node handles, 0 being empty (terminals are never stored).
+     */
+    private int[] unique = new int[ 2048 ];
+
+    private final long[] cacheKeys = new long[ CACHE_SIZE ];
+
+    private final int[] cacheOps = new int[ CACHE_SIZE ];
+
+    private final int[] cacheResults = new int[ CACHE_SIZE ];
+
+    public Bdd()
+    {
+        this.vars[ FALSE ] = TERMINAL;
+        this.vars[ TRUE ] = TERMINAL;
+        this.size = 2;
+        Arrays.fill( this.cacheOps, -1 );
+    }
+
+    /**
+     * Minimises a table by building its diagram and extracting an irredundant
+     * cover, for use as a {@link Minimiser}.
+     *
+     * @param words
+     *            the truth table; missing trailing words are zero
+     * @param bitCount
+     *            the bit count of the table
+     * @return the cover
+     */
+    public static long[] isop( long[] words, int bitCount )
+    {
+        Bdd bdd = new Bdd();
+        return bdd.cubes( bdd.fromWords( words, bitCount ) );
+    }
+
+    /**
+     * @return the number of nodes made, including the terminals
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * @return the function true when the bit is set
+     */
+    public int variable( int bit )
+    {
+        return node( bit, FALSE, TRUE );
+    }
+
+    public int not( int f )
+    {
+        return xor( f, TRUE );
+    }
+
+    public int and( int f, int g )
+    {
+        return apply( AND, f, g );
+    }
+
+    public int or( int f, int g )
+    {
+        return apply( OR, f, g );
+    }
+
+    public int xor( int f, int g )
+    {
+        return apply( XOR, f, g );
+    }
+
+    public boolean evaluate( int f, int input )
+    {
+        int node = f;
+        while ( this.vars[ node ] != TERMINAL )
+        {
+            node = ( input & ( 1 << this.vars[ node ] ) ) != 0 ? this.highs[ node ] : this.lows[ node ];
+        }
+        return node == TRUE;
+    }
+
+    /**
+     * @return the function true for the inputs matching the cube
+     */
+    public int fromCube( long cube )
+    {
+        int result = TRUE;
+        // Build from the lowest bit up, so each node is made just once.
+        for ( int bits = Cube.interestMask( cube ); bits != 0; bits &= bits - 1 )
+        {
+            int bit = Integer.numberOfTrailingZeros( bits );
+            result = ( Cube.setMask( cube ) & ( 1 << bit ) ) != 0
+                ? node( bit, FALSE, result )
+                : node( bit, result, FALSE );
+        }
+        return result;
+    }
+
+    /**
+     * @return the function true where any of the expression's terms is
+     */
+    public int fromExpression( Expression expression )
+    {
+        int result = FALSE;
+        for ( And and : expression.ands() )
+        {
+            result = or( result, fromCube( and.cube() ) );
+        }
+        return result;
+    }
+
+    /**
+     * As {@link Util#isEqual(int, int, int, int)}.
+     */
+    public int isEqual( int offset, int mask, int desired )
+    {
+        Preconditions.checkArgument( ( desired & ~mask ) == 0, "desired has bits outside the mask" );
+        return fromCube( Cube.of( mask << offset, desired << offset ) );
+    }
+
+    /**
+     * As {@link Util#isBetween(int, int, int, int, int)}, in nodes proportional
+     * to the width of the mask.
+     *
+     * @param mask
+     *            a mask of contiguous low bits
+     */
+    public int isBetween( int offset, int mask, int fromInclusive, int toExclusive )
+    {
+        Preconditions.checkArgument( ( mask & ( mask + 1 ) ) == 0, "mask must be contiguous low bits" );
+        return and( lessThan( offset, mask, toExclusive ), not( lessThan( offset, mask, fromInclusive ) ) );
+    }
+
+    /**
+     * @return the function true where the masked value is below the limit
+     */
+    int lessThan( int offset, int mask, int limit )
+    {
+        if ( limit > mask )
+        {
+            return TRUE;
+        }
+        if ( limit <= 0 )
+        {
+            return FALSE;
+        }
+
+        // Working up from the lowest bit, x < limit over bits 0..i is
+        // either "bit i below" or "bit i equal and the rest below".
+        int result = FALSE;
+        int width = Integer.SIZE - Integer.numberOfLeadingZeros( mask );
+        for ( int i = 0; i < width; i++ )
+        {
+            int bit = offset + i;
+            result = ( limit & ( 1 << i ) ) != 0
+                ? node( bit, TRUE, result )
+                : node( bit, result, FALSE );
+        }
+        return result;
+    }
+
+    /**
+     * Builds the function by calling the tester for every input. This takes
+     * time in proportion to the inputs, but only the memory the diagram needs.
+     */
+    public int fromPredicate( int bitCount, IntPredicate bitTester )
+    {
+        return build( bitCount - 1, 0, bitTester );
+    }
+
+    /**
+     * As {@link #fromPredicate(int, IntPredicate)}, sampling one bit of an
+     * operator.
+     */
+    public int fromOperator( int bitCount, IntUnaryOperator operator, int bitOfInterest )
+    {
+        return fromPredicate( bitCount, i -> ( ( operator.applyAsInt( i ) >>> bitOfInterest ) & 1 ) != 0 );
+    }
+
+    private int build( int bit, int prefix, IntPredicate bitTester )
+    {
+        if ( bit < 0 )
+        {
+            return bitTester.test( prefix ) ? TRUE : FALSE;
+        }
+        int low = build( bit - 1, prefix, bitTester );
+        int high = build( bit - 1, prefix | ( 1 << bit ), bitTester );
+        return node( bit, low, high );
+    }
+
+    /**
+     * Builds the function of a truth table, a word at a time.
+     *
+     * @param words
+     *            the truth table; missing trailing words are zero
+     * @param bitCount
+     *            the bit count of the table
+     */
+    public int fromWords( long[] words, int bitCount )
+    {
+        if ( bitCount <= 6 )
+        {
+            long word = words.length > 0 ? words[ 0 ] : 0;
+            return fromWord( bitCount < 6 ? word & ( ( 1L << ( 1 << bitCount ) ) - 1 ) : word, bitCount );
+        }
+
+        Map< Long, Integer > wordNodes = new HashMap<>();
+        int[] level = new int[ 1 << ( bitCount - 6 ) ];
+        for ( int i = 0; i < level.length; i++ )
+        {
+            long word = i < words.length ? words[ i ] : 0;
+            level[ i ] = wordNodes.computeIfAbsent( word, w -> fromWord( w, 6 ) );
+        }
+
+        // Pair up halves, one bit at a time.
+        for ( int bit = 6; bit < bitCount; bit++ )
+        {
+            int[] next = new int[ level.length / 2 ];
+            for ( int i = 0; i < next.length; i++ )
+            {
+                next[ i ] = node( bit, level[ 2 * i ], level[ 2 * i + 1 ] );
+            }
+            level = next;
+        }
+        return level[ 0 ];
+    }
+
+    private int fromWord( long word, int bitCount )
+    {
+        if ( bitCount == 0 )
+        {
+            return ( word & 1 ) != 0 ? TRUE : FALSE;
+        }
+        int half = 1 << ( bitCount - 1 );
+        long lowMask = ( 1L << half ) - 1;
+        int low = fromWord( word & lowMask, bitCount - 1 );
+        int high = fromWord( ( word >>> half ) & lowMask, bitCount - 1 );
+        return node( bitCount - 1, low, high );
+    }
+
+    /**
+     * Extracts an irredundant sum of products by Minato-Morreale ISOP, ready to
+     * use as it is or to feed to a {@link Minimiser}.
+     *
+     * @return cubes whose union is exactly the function
+     */
+    public long[] cubes( int f )
+    {
+        return isop( f, f, new HashMap<>() ).cubes();
+    }
+
+    /**
+     * @return the expression formed from {@link #cubes(int)}
+     */
+    public Expression expression( String name, int f )
+    {
+        return TruthTable.expression( name, cubes( f ) );
+    }
+
+    private record Cover( long[] cubes, int function )
+    {
+    }
+
+    /**
+     * Finds an irredundant cover of a function lying between the lower and
+     * upper bounds.
+     */
+    private Cover isop( int lower, int upper, Map< Long, Cover > memo )
+    {
+        if ( lower == FALSE )
+        {
+            return new Cover( new long[ 0 ], FALSE );
+        }
+        if ( upper == TRUE )
+        {
+            return new Cover( new long[] { Cube.of( 0, 0 ) }, TRUE );
+        }
+
+        long key = ( (long) lower << 32 ) | upper;
+        Cover cached = memo.get( key );
+        if ( cached != null )
+        {
+            return cached;
+        }
+
+        int bit = Math.max( this.vars[ lower ], this.vars[ upper ] );
+        int lower0 = low( lower, bit );
+        int lower1 = high( lower, bit );
+        int upper0 = low( upper, bit );
+        int upper1 = high( upper, bit );
+
+        // What must be covered with the bit clear, then set, then either way.
+        Cover cover0 = isop( and( lower0, not( upper1 ) ), upper0, memo );
+        Cover cover1 = isop( and( lower1, not( upper0 ) ), upper1, memo );
+        int rest = or( and( lower0, not( cover0.function() ) ), and( lower1, not( cover1.function() ) ) );
+        Cover coverBoth = isop( rest, and( upper0, upper1 ), memo );
+
+        long[] cubes = new long[ cover0.cubes().length + cover1.cubes().length + coverBoth.cubes().length ];
+        int count = 0;
+        for ( long cube : cover0.cubes() )
+        {
+            cubes[ count++ ] = Cube.of( Cube.interestMask( cube ) | ( 1 << bit ), Cube.setMask( cube ) );
+        }
+        for ( long cube : cover1.cubes() )
+        {
+            cubes[ count++ ] = Cube.of( Cube.interestMask( cube ) | ( 1 << bit ), Cube.setMask( cube ) | ( 1 << bit ) );
+        }
+        System.arraycopy( coverBoth.cubes(), 0, cubes, count, coverBoth.cubes().length );
+
+        int function = or( node( bit, cover0.function(), cover1.function() ), coverBoth.function() );
+        Cover result = new Cover( cubes, function );
+        memo.put( key, result );
+        return result;
+    }
+
+    private int low( int f, int bit )
+    {
+        return this.vars[ f ] == bit ? this.lows[ f ] : f;
+    }
+
+    private int high( int f, int bit )
+    {
+        return this.vars[ f ] == bit ? this.highs[ f ] : f;
+    }
+
+    private int apply( int op, int f, int g )
+    {
+        switch ( op )
+        {
+            case AND ->
+            {
+                if ( f == FALSE || g == FALSE )
+                {
+                    return FALSE;
+                }
+                if ( f == TRUE || f == g )
+                {
+                    return g;
+                }
+                if ( g == TRUE )
+                {
+                    return f;
+                }
+            }
+            case OR ->
+            {
+                if ( f == TRUE || g == TRUE )
+                {
+                    return TRUE;
+                }
+                if ( f == FALSE || f == g )
+                {
+                    return g;
+                }
+                if ( g == FALSE )
+                {
+                    return f;
+                }
+            }
+            default ->
+            {
+                if ( f == g )
+                {
+                    return FALSE;
+                }
+                if ( f == FALSE )
+                {
+                    return g;
+                }
+                if ( g == FALSE )
+                {
+                    return f;
+                }
+            }
+        }
+
+        // All three are commutative.
+        if ( f > g )
+        {
+            int t = f;
+            f = g;
+            g = t;
+        }
+
+        long key = ( (long) f << 32 ) | g;
+        int slot = (int) ( ( key * 0x9E3779B97F4A7C15L + op ) >>> 48 ) & ( CACHE_SIZE - 1 );
+        if ( this.cacheOps[ slot ] == op && this.cacheKeys[ slot ] == key )
+        {
+            return this.cacheResults[ slot ];
+        }
+
+        int bit = Math.max( this.vars[ f ], this.vars[ g ] );
+        int low = apply( op, low( f, bit ), low( g, bit ) );
+        int high = apply( op, high( f, bit ), high( g, bit ) );
+        int result = node( bit, low, high );
+
+        this.cacheOps[ slot ] = op;
+        this.cacheKeys[ slot ] = key;
+        this.cacheResults[ slot ] = result;
+        return result;
+    }
+
+    /**
+     * @return the node testing the bit, made only if no equal node exists
+     */
+    private int node( int bit, int low, int high )
+    {
+        if ( low == high )
+        {
+            return low;
+        }
+        assert bit > this.vars[ low ] && bit > this.vars[ high ];
+
+        int mask = this.unique.length - 1;
+        int slot = hash( bit, low, high ) & mask;
+        for ( int node = this.unique[ slot ]; node != 0; node = this.unique[ slot ] )
+        {
+            if ( this.vars[ node ] == bit && this.lows[ node ] == low && this.highs[ node ] == high )
+            {
+                return node;
+            }
+            slot = ( slot + 1 ) & mask;
+        }
+
+        if ( this.size == this.vars.length )
+        {
+            this.vars = Arrays.copyOf( this.vars, this.size * 2 );
+            this.lows = Arrays.copyOf( this.lows, this.size * 2 );
+            this.highs = Arrays.copyOf( this.highs, this.size * 2 );
+        }
+        int node = this.size++;
+        this.vars[ node ] = bit;
+        this.lows[ node ] = low;
+        this.highs[ node ] = high;
+        this.unique[ slot ] = node;
+
+        // Keep the unique table at most half full.
+        if ( this.size * 2 > this.unique.length )
+        {
+            rehash();
+        }
+        return node;
+    }
+
+    private void rehash()
+    {
+        int[] table = new int[ this.unique.length * 2 ];
+        int mask = table.length - 1;
+        for ( int node = 2; node < this.size; node++ )
+        {
+            int slot = hash( this.vars[ node ], this.lows[ node ], this.highs[ node ] ) & mask;
+            while ( table[ slot ] != 0 )
+            {
+                slot = ( slot + 1 ) & mask;
+            }
+            table[ slot ] = node;
+        }
+        this.unique = table;
+    }
+
+    private static int hash( int bit, int low, int high )
+    {
+        long h = ( ( (long) low << 32 ) | high ) * 0x9E3779B97F4A7C15L + bit * 0xC2B2AE3D27D4EB4FL;
+        return (int) ( h ^ ( h >>> 29 ) );
+    }
+}
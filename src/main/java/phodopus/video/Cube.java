@@ -0,0 +1,300 @@
+/* Copyright © 2022 Matthew Wilson
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0
+ * which is available at:
+ * http://www.eclipse.org/legal/epl-2.0
+ * or the GNU General Public License v3.0 or later
+ * which is available at:
+ * https://www.gnu.org/licenses/gpl-3.0.en.html
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-3.0-or-later
+ */
+package phodopus.video;
+
+import java.nio.LongBuffer;
+
+/**
+ * Allocation-free product terms, packed into a {@code long}: the interest mask
+ * (bits that must match) in the high half and the set mask (the values they
+ * must match) in the low half.
+ * <p>
+ * Truth tables are handled as {@code long[]} words as from
+ * {@link java.util.BitSet#toLongArray()}, where input {@code i} is bit
+ * {@code i & 63} of word {@code i >>> 6}. The low six input bits therefore
+ * select a position within a word, so they are handled a whole word at a time,
+ * and only the words selected by the remaining bits are visited.
+ */
+public final class Cube
+{
+    private Cube()
+    {
+        throw new AssertionError();
+    }
+
+    public static long of( int interestMask, int setMask )
+    {
+        assert ( ~interestMask & setMask ) == 0;
+        return ( (long) interestMask << 32 ) | ( setMask & 0xFFFFFFFFL );
+    }
+
+    /**
+     * @param input
+     *            an input value
+     * @param bitCount
+     *            the number of input bits
+     * @return the cube matching just that input
+     */
+    public static long minterm( int input, int bitCount )
+    {
+        return of( ( 1 << bitCount ) - 1, input );
+    }
+
+    public static int interestMask( long cube )
+    {
+        return (int) ( cube >>> 32 );
+    }
+
+    public static int setMask( long cube )
+    {
+        return (int) cube;
+    }
+
+    /**
+     * @return the cube with a bit made don't-care
+     */
+    public static long drop( long cube, int bit )
+    {
+        int keep = ~( 1 << bit );
+        return of( interestMask( cube ) & keep, setMask( cube ) & keep );
+    }
+
+    /**
+     * @return the number of bits up to and including the highest bit of interest
+     */
+    public static int width( long cube )
+    {
+        return Integer.SIZE - Integer.numberOfLeadingZeros( interestMask( cube ) );
+    }
+
+    /**
+     * @return the number of literals
+     */
+    public static int literals( long cube )
+    {
+        return Integer.bitCount( interestMask( cube ) );
+    }
+
+    public static boolean test( long cube, int input )
+    {
+        return ( input & interestMask( cube ) ) == setMask( cube );
+    }
+
+    /**
+     * @return whether every input matched by {@code other} is matched by
+     *         {@code cube}
+     */
+    public static boolean contains( long cube, long other )
+    {
+        int interest = interestMask( cube );
+        return ( interest & ~interestMask( other ) ) == 0
+               && ( ( setMask( cube ) ^ setMask( other ) ) & interest ) == 0;
+    }
+
+    /**
+     * @return whether any input is matched by both cubes
+     */
+    public static boolean intersects( long cube, long other )
+    {
+        int common = interestMask( cube ) & interestMask( other );
+        return ( ( setMask( cube ) ^ setMask( other ) ) & common ) == 0;
+    }
+
+    /**
+     * Orders cubes so that the one using the highest bit comes first, then by
+     * the next highest bit, and so on. Cubes using the same bits compare equal.
+     */
+    public static int compare( long cube, long other )
+    {
+        int difference = interestMask( cube ) ^ interestMask( other );
+        if ( difference == 0 )
+        {
+            return 0;
+        }
+        return ( interestMask( cube ) & Integer.highestOneBit( difference ) ) != 0 ? -1 : 1;
+    }
+
+    /**
+     * Determines if all matching combinations (that is, inputs that evaluate to 1)
+     * have a 1 in the given table.
+     *
+     * @param words
+     *            the truth table; missing trailing words are zero
+     * @param bitCount
+     *            the bit count of the table
+     * @return whether all match
+     */
+    public static boolean testAll( long cube, long[] words, int bitCount )
+    {
+        int free = ~interestMask( cube ) & ( ( 1 << bitCount ) - 1 );
+        int set = setMask( cube );
+        long positions = positions( set & 63, free & 63 );
+        int wordFree = free >>> 6;
+        int word = set >>> 6;
+
+        // Visit every submask of the don't-care word bits.
+        int x = 0;
+        do
+        {
+            int index = word | x;
+            if ( index >= words.length || ( words[ index ] & positions ) != positions )
+            {
+                // There's a 0, so it's not good.
+                return false;
+            }
+            x = ( x - wordFree ) & wordFree;
+        }
+        while ( x != 0 );
+
+        return true;
+    }
+
+    /**
+     * Clears all matching combinations in the given table.
+     *
+     * @param words
+     *            the truth table; missing trailing words are taken as zero
+     * @param bitCount
+     *            the bit count of the table
+     */
+    public static void clearAll( long cube, long[] words, int bitCount )
+    {
+        int free = ~interestMask( cube ) & ( ( 1 << bitCount ) - 1 );
+        int set = setMask( cube );
+        long positions = ~positions( set & 63, free & 63 );
+        int wordFree = free >>> 6;
+        int word = set >>> 6;
+
+        int x = 0;
+        do
+        {
+            int index = word | x;
+            if ( index < words.length )
+            {
+                words[ index ] &= positions;
+            }
+            x = ( x - wordFree ) & wordFree;
+        }
+        while ( x != 0 );
+    }
+
+    /**
+     * Sets all matching combinations in the given table.
+     *
+     * @param words
+     *            the truth table, with at least {@code ((1 << bitCount) + 63) / 64}
+     *            words
+     * @param bitCount
+     *            the bit count of the table
+     */
+    public static void setAll( long cube, long[] words, int bitCount )
+    {
+        int free = ~interestMask( cube ) & ( ( 1 << bitCount ) - 1 );
+        int set = setMask( cube );
+        long positions = positions( set & 63, free & 63 );
+        int wordFree = free >>> 6;
+        int word = set >>> 6;
+
+        int x = 0;
+        do
+        {
+            words[ word | x ] |= positions;
+            x = ( x - wordFree ) & wordFree;
+        }
+        while ( x != 0 );
+    }
+
+    /**
+     * As {@link #testAll(long, long[], int)}, for tables held in buffers such as
+     * mapped files.
+     *
+     * @param words
+     *            the truth table, indexed absolutely; words from the limit on
+     *            are zero
+     * @param bitCount
+     *            the bit count of the table
+     * @return whether all match
+     */
+    public static boolean testAll( long cube, LongBuffer words, int bitCount )
+    {
+        int free = ~interestMask( cube ) & ( ( 1 << bitCount ) - 1 );
+        int set = setMask( cube );
+        long positions = positions( set & 63, free & 63 );
+        int wordFree = free >>> 6;
+        int word = set >>> 6;
+        int length = words.limit();
+
+        int x = 0;
+        do
+        {
+            int index = word | x;
+            if ( index >= length || ( words.get( index ) & positions ) != positions )
+            {
+                return false;
+            }
+            x = ( x - wordFree ) & wordFree;
+        }
+        while ( x != 0 );
+
+        return true;
+    }
+
+    /**
+     * As {@link #clearAll(long, long[], int)}, for tables held in buffers such
+     * as mapped files.
+     *
+     * @param words
+     *            the truth table, indexed absolutely; words from the limit on
+     *            are taken as zero
+     * @param bitCount
+     *            the bit count of the table
+     */
+    public static void clearAll( long cube, LongBuffer words, int bitCount )
+    {
+        int free = ~interestMask( cube ) & ( ( 1 << bitCount ) - 1 );
+        int set = setMask( cube );
+        long positions = ~positions( set & 63, free & 63 );
+        int wordFree = free >>> 6;
+        int word = set >>> 6;
+        int length = words.limit();
+
+        int x = 0;
+        do
+        {
+            int index = word | x;
+            if ( index < length )
+            {
+                words.put( index, words.get( index ) & positions );
+            }
+            x = ( x - wordFree ) & wordFree;
+        }
+        while ( x != 0 );
+    }
+
+    /**
+     * @param set
+     *            the bits that must be set within a word index
+     * @param free
+     *            the don't-care bits within a word index
+     * @return a mask of every bit position within a word that is covered
+     */
+    static long positions( int set, int free )
+    {
+        long positions = 1L << set;
+        for ( int bits = free; bits != 0; bits &= bits - 1 )
+        {
+            positions |= positions << ( 1 << Integer.numberOfTrailingZeros( bits ) );
+        }
+        return positions;
+    }
+}
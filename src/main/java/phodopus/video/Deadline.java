@@ -0,0 +1,51 @@
+/* Copyright © 2022 Matthew Wilson
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0
+ * which is available at:
+ * http://www.eclipse.org/legal/epl-2.0
+ * or the GNU General Public License v3.0 or later
+ * which is available at:
+ * https://www.gnu.org/licenses/gpl-3.0.en.html
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-3.0-or-later
+ */
+package phodopus.video;
+
+/**
+ * A point in {@link System#nanoTime()} after which work should stop, or none
+ * at all. Times are compared by subtraction, so a deadline may lie either side
+ * of the point where the clock wraps.
+ */
+final class Deadline
+{
+    /**
+     * No deadline: it never passes.
+     */
+    static final Deadline NONE = new Deadline( false, 0 );
+
+    private final boolean bounded;
+
+    private final long nanoTime;
+
+    private Deadline( boolean bounded, long nanoTime )
+    {
+        this.bounded = bounded;
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * @param nanos
+     *            the time from now, at most {@code Long.MAX_VALUE / 2}
+     * @return the deadline
+     */
+    static Deadline after( long nanos )
+    {
+        return new Deadline( true, System.nanoTime() + nanos );
+    }
+
+    boolean passed()
+    {
+        return this.bounded && System.nanoTime() - this.nanoTime > 0;
+    }
+}
@@ -0,0 +1,253 @@
+/* Copyright © 2022 Matthew Wilson
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0
+ * which is available at:
+ * http://www.eclipse.org/legal/epl-2.0
+ * or the GNU General Public License v3.0 or later
+ * which is available at:
+ * https://www.gnu.org/licenses/gpl-3.0.en.html
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-3.0-or-later
+ */
+package phodopus.video;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import phodopus.video.Simulation.Bus;
+import phodopus.video.Simulation.Engine;
+import phodopus.video.Simulation.MutableState;
+import phodopus.video.Simulation.Pin;
+
+/**
+ * A monitor for the simulated RGB outputs, capturing whole frames of pixels.
+ * <p>
+ * The RGB outputs are registered, so each shows the pixel for the cycle
+ * before: a pixel is captured on each cycle after one with {@code VIS} set, in
+ * raster order. A frame starts when {@code VVIS} rises, and is complete once
+ * every pixel has been captured.
+ */
+public final class Display
+{
+    /**
+     * The visible pixels across each line.
+     */
+    public static final int WIDTH = 320;
+
+    /**
+     * The visible lines in each frame.
+     */
+    public static final int HEIGHT = 400;
+
+    /**
+     * The video RAM: 15 address bits, each byte holding two pixels.
+     */
+    public static final int MEMORY_SIZE = 1 << 15;
+
+    /**
+     * The cycles in each frame: 400 per line, 525 lines.
+     */
+    public static final int FRAME_CYCLES = 400 * 525;
+
+    private final int width;
+
+    private final int height;
+
+    private final Pin visible;
+
+    private final Pin vertical;
+
+    private final Bus red;
+
+    private final Bus green;
+
+    private final Bus blue;
+
+    private final int[] pixels;
+
+    private Display( Simulation simulation, int width, int height )
+    {
+        this.width = width;
+        this.height = height;
+        this.visible = simulation.pin( "VIS" );
+        this.vertical = simulation.pin( "VVIS" );
+        this.red = simulation.bus( "R", 2 );
+        this.green = simulation.bus( "G", 2 );
+        this.blue = simulation.bus( "B", 2 );
+
+        this.pixels = new int[ width * height ];
+    }
+
+    public static Display create( Simulation simulation )
+    {
+        return create( simulation, WIDTH, HEIGHT );
+    }
+
+    public static Display create( Simulation simulation, int width, int height )
+    {
+        Preconditions.checkArgument( width > 0 && height > 0, "Bad size: %sx%s", width, height );
+        return new Display( simulation, width, height );
+    }
+
+    public int width()
+    {
+        return this.width;
+    }
+
+    public int height()
+    {
+        return this.height;
+    }
+
+    /**
+     * Runs the simulation until a whole frame has been shown.
+     *
+     * @param state
+     *            the state to advance
+     * @return the frame's pixels, row by row, as {@code 0xRRGGBB}; overwritten
+     *         by the next frame
+     * @throws IllegalStateException
+     *             if no whole frame is shown within two frames' worth of
+     *             cycles, such as when the size is wrong
+     */
+    public int[] nextFrame( MutableState state )
+    {
+        boolean visible = state.flag( this.visible );
+        boolean vertical = state.flag( this.vertical );
+        int count = 0;
+        for ( int cycle = 0; cycle < 2 * FRAME_CYCLES; cycle++ )
+        {
+            state.next();
+            if ( visible )
+            {
+                this.pixels[ count++ ] = colour( state );
+                if ( count == this.pixels.length )
+                {
+                    return this.pixels;
+                }
+            }
+            visible = state.flag( this.visible );
+
+            boolean wasVertical = vertical;
+            vertical = state.flag( this.vertical );
+            if ( vertical && !wasVertical )
+            {
+                count = 0;
+            }
+        }
+        throw new IllegalStateException( String.format( "No %dx%d frame within %d cycles",
+                                                        this.width,
+                                                        this.height,
+                                                        2 * FRAME_CYCLES ) );
+    }
+
+    /**
+     * @return the colour of the RGB outputs, each channel's two bits spread
+     *         over 0 to 255
+     */
+    private int colour( MutableState state )
+    {
+        return state.number( this.red ) * 0x55 << 16
+               | state.number( this.green ) * 0x55 << 8
+               | state.number( this.blue ) * 0x55;
+    }
+
+    /**
+     * Writes the last frame as a binary PPM (P6) image.
+     *
+     * @param file
+     *            the file to write
+     */
+    public void writePpm( Path file ) throws IOException
+    {
+        byte[] header = String.format( "P6\n%d %d\n255\n", this.width, this.height )
+                              .getBytes( StandardCharsets.US_ASCII );
+        ByteBuffer buffer = ByteBuffer.allocate( header.length + this.pixels.length * 3 );
+        buffer.put( header );
+        for ( int rgb : this.pixels )
+        {
+            buffer.put( (byte) ( rgb >>> 16 ) ).put( (byte) ( rgb >>> 8 ) ).put( (byte) rgb );
+        }
+        buffer.flip();
+
+        try ( FileChannel channel = FileChannel.open( file,
+                                                      StandardOpenOption.CREATE,
+                                                      StandardOpenOption.WRITE,
+                                                      StandardOpenOption.TRUNCATE_EXISTING ) )
+        {
+            while ( buffer.hasRemaining() )
+            {
+                channel.write( buffer );
+            }
+        }
+    }
+
+    /**
+     * Renders frames of a scrolling test pattern from video RAM, writing each
+     * as a PPM image, and reports the frame rate.
+     *
+     * @param args
+     *            the directory to write to, and optionally the number of frames
+     *            (100 by default)
+     */
+    public static void main( String[] args ) throws IOException
+    {
+        Path directory = Path.of( args.length > 0 ? args[ 0 ] : "target/frames" );
+        int frames = args.length > 1 ? Integer.parseInt( args[ 1 ] ) : 100;
+        Files.createDirectories( directory );
+
+        List< Chip > chips = Util.build( ImmutableList.copyOf( Video.chips().values() ) );
+        byte[] memory = new byte[ MEMORY_SIZE ];
+        Simulation simulation = Simulation.create( chips, Engine.TABLE ).withMemory( "A", 15, "D", memory );
+        Display display = create( simulation );
+        MutableState state = simulation.zeroState().with( "Clear", true ).next().toMutable();
+
+        long simulating = 0;
+        long start = System.nanoTime();
+        for ( int frame = 0; frame < frames; frame++ )
+        {
+            testPattern( memory, frame );
+
+            long before = System.nanoTime();
+            display.nextFrame( state );
+            simulating += System.nanoTime() - before;
+
+            display.writePpm( directory.resolve( String.format( "frame%04d.ppm", frame ) ) );
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf( "%d frames in %.2fs: %.1f fps (%.1f fps simulating alone)%n",
+                           frames,
+                           elapsed / 1e9,
+                           frames * 1e9 / elapsed,
+                           frames * 1e9 / simulating );
+    }
+
+    /**
+     * Fills video RAM with diagonal bands of all 16 colours, moved along by
+     * the frame number. Lines are 160 bytes of two pixels each, and each line
+     * of memory is shown twice.
+     */
+    private static void testPattern( byte[] memory, int frame )
+    {
+        for ( int y = 0; y < HEIGHT / 2; y++ )
+        {
+            for ( int x = 0; x < WIDTH / 2; x++ )
+            {
+                int even = ( ( 2 * x + y + frame ) >>> 4 ) & 15;
+                int odd = ( ( 2 * x + 1 + y + frame ) >>> 4 ) & 15;
+                memory[ y * ( WIDTH / 2 ) + x ] = (byte) ( even | odd << 4 );
+            }
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/* Copyright © 2022 Matthew Wilson
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0
+ * which is available at:
+ * http://www.eclipse.org/legal/epl-2.0
+ * or the GNU General Public License v3.0 or later
+ * which is available at:
+ * https://www.gnu.org/licenses/gpl-3.0.en.html
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-3.0-or-later
+ */
+package phodopus.video;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Heuristic minimiser in the style of Espresso.
+ * <p>
+ * Starting from the {@link GreedyMinimiser} cover, it repeats:
+ * <ul>
+ * <li>REDUCE: shrink each cube to the smallest cube containing the inputs that
+ * no other cube covers, making room for the others to grow differently;</li>
+ * <li>EXPAND: grow each cube, largest first, always dropping the bit that
+ * swallows the most other cubes, and discard the cubes swallowed;</li>
+ * <li>IRREDUNDANT: discard cubes wholly covered by the others, smallest
+ * first;</li>
+ * </ul>
+ * until the cover stops improving. The result never has more terms (or, for
+ * the same number of terms, more literals) than the greedy cover.
+ * <p>
+ * Coverage is tracked with a count per input, so the table should fit
+ * comfortably in memory twice over.
+ */
+public final class EspressoMinimiser implements Minimiser
+{
+    private static final long REMOVED = -1L;
+
+    @Override
+    public long[] minimise( long[] words, int bitCount )
+    {
+        return minimise( words, bitCount, Deadline.NONE );
+    }
+
+    /**
+     * As {@link #minimise(long[], int)}, but settling for the best cover so far
+     * once a deadline passes. The first cover is always completed.
+     *
+     * @param deadline
+     *            when to stop improving
+     */
+    long[] minimise( long[] words, int bitCount, Deadline deadline )
+    {
+        char[] counts = new char[ 1 << bitCount ];
+
+        long[] cover = irredundant( new GreedyMinimiser().minimise( words, bitCount ), counts, bitCount );
+        long[] best = cover;
+        while ( !deadline.passed() )
+        {
+            cover = reduce( cover, counts, bitCount );
+            cover = expand( cover, words, bitCount );
+            cover = irredundant( cover, counts, bitCount );
+            if ( compareCost( cover, best ) >= 0 )
+            {
+                return best;
+            }
+            best = cover;
+        }
+        return best;
+    }
+
+    /**
+     * Orders covers by number of cubes, then by total literals.
+     */
+    static int compareCost( long[] cover, long[] other )
+    {
+        int result = Integer.compare( cover.length, other.length );
+        if ( result != 0 )
+        {
+            return result;
+        }
+        return Long.compare( literals( cover ), literals( other ) );
+    }
+
+    private static long literals( long[] cover )
+    {
+        return Arrays.stream( cover ).map( Cube::literals ).sum();
+    }
+
+    /**
+     * Sorts cubes with the fewest literals (that is, the largest) first.
+     */
+    private static long[] largestFirst( long[] cover )
+    {
+        return Arrays.stream( cover )
+                     .boxed()
+                     .sorted( Comparator.comparingInt( Cube::literals ) )
+                     .mapToLong( Long::longValue )
+                     .toArray();
+    }
+
+    private static long[] compact( long[] cover )
+    {
+        return Arrays.stream( cover ).filter( cube -> cube != REMOVED ).toArray();
+    }
+
+    private static long[] expand( long[] cover, long[] words, int bitCount )
+    {
+        long[] cubes = largestFirst( cover );
+        for ( int i = 0; i < cubes.length; i++ )
+        {
+            long cube = cubes[ i ];
+            if ( cube == REMOVED )
+            {
+                continue;
+            }
+
+            while ( true )
+            {
+                // Of the bits that can be dropped, pick the one that swallows most other cubes.
+                long best = cube;
+                int bestSwallowed = -1;
+                for ( int bits = Cube.interestMask( cube ); bits != 0; bits &= bits - 1 )
+                {
+                    long dropped = Cube.drop( cube, Integer.numberOfTrailingZeros( bits ) );
+                    if ( !Cube.testAll( dropped, words, bitCount ) )
+                    {
+                        continue;
+                    }
+
+                    int swallowed = 0;
+                    for ( int j = 0; j < cubes.length; j++ )
+                    {
+                        if ( j != i && cubes[ j ] != REMOVED && Cube.contains( dropped, cubes[ j ] ) )
+                        {
+                            swallowed++;
+                        }
+                    }
+                    if ( swallowed > bestSwallowed )
+                    {
+                        best = dropped;
+                        bestSwallowed = swallowed;
+                    }
+                }
+
+                if ( best == cube )
+                {
+                    break;
+                }
+                cube = best;
+            }
+
+            cubes[ i ] = cube;
+            for ( int j = 0; j < cubes.length; j++ )
+            {
+                if ( j != i && cubes[ j ] != REMOVED && Cube.contains( cube, cubes[ j ] ) )
+                {
+                    cubes[ j ] = REMOVED;
+                }
+            }
+        }
+
+        return compact( cubes );
+    }
+
+    /**
+     * Removes redundant cubes, leaving the counts matching the result.
+     */
+    private static long[] irredundant( long[] cover, char[] counts, int bitCount )
+    {
+        Arrays.fill( counts, (char) 0 );
+        for ( long cube : cover )
+        {
+            paint( cube, counts, bitCount, 1 );
+        }
+
+        // Try the smallest first, so that the largest are kept.
+        long[] cubes = largestFirst( cover );
+        for ( int i = cubes.length - 1; i >= 0; i-- )
+        {
+            if ( minimumCount( cubes[ i ], counts, bitCount ) > 1 )
+            {
+                paint( cubes[ i ], counts, bitCount, -1 );
+                cubes[ i ] = REMOVED;
+            }
+        }
+
+        return compact( cubes );
+    }
+
+    /**
+     * Shrinks each cube to the supercube of the inputs that only it covers,
+     * keeping the counts matching the result.
+     */
+    private static long[] reduce( long[] cover, char[] counts, int bitCount )
+    {
+        long[] cubes = largestFirst( cover );
+        for ( int i = 0; i < cubes.length; i++ )
+        {
+            long cube = cubes[ i ];
+            int set = Cube.setMask( cube );
+            int free = ~Cube.interestMask( cube ) & ( ( 1 << bitCount ) - 1 );
+
+            // Find the supercube of the inputs covered by this cube alone.
+            boolean needed = false;
+            int and = -1;
+            int or = 0;
+            int x = 0;
+            do
+            {
+                int input = set | x;
+                if ( counts[ input ] == 1 )
+                {
+                    needed = true;
+                    and &= input;
+                    or |= input;
+                }
+                x = ( x - free ) & free;
+            }
+            while ( x != 0 );
+
+            long reduced;
+            if ( !needed )
+            {
+                // Nothing needs it.
+                reduced = REMOVED;
+            }
+            else
+            {
+                int interest = ~( and ^ or ) & ( ( 1 << bitCount ) - 1 );
+                reduced = Cube.of( interest, and & interest );
+            }
+
+            // Uncount whatever the cube no longer covers.
+            x = 0;
+            do
+            {
+                int input = set | x;
+                if ( reduced == REMOVED || !Cube.test( reduced, input ) )
+                {
+                    counts[ input ]--;
+                }
+                x = ( x - free ) & free;
+            }
+            while ( x != 0 );
+
+            cubes[ i ] = reduced;
+        }
+
+        return compact( cubes );
+    }
+
+    private static void paint( long cube, char[] counts, int bitCount, int delta )
+    {
+        int set = Cube.setMask( cube );
+        int free = ~Cube.interestMask( cube ) & ( ( 1 << bitCount ) - 1 );
+        int x = 0;
+        do
+        {
+            counts[ set | x ] += delta;
+            x = ( x - free ) & free;
+        }
+        while ( x != 0 );
+    }
+
+    private static int minimumCount( long cube, char[] counts, int bitCount )
+    {
+        int set = Cube.setMask( cube );
+        int free = ~Cube.interestMask( cube ) & ( ( 1 << bitCount ) - 1 );
+        int minimum = Character.MAX_VALUE;
+        int x = 0;
+        do
+        {
+            minimum = Math.min( minimum, counts[ set | x ] );
+            if ( minimum <= 1 )
+            {
+                break;
+            }
+            x = ( x - free ) & free;
+        }
+        while ( x != 0 );
+        return minimum;
+    }
+}
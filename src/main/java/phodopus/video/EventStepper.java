@@ -0,0 +1,127 @@
+/* Copyright © 2022 Matthew Wilson
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0
+ * which is available at:
+ * http://www.eclipse.org/legal/epl-2.0
+ * or the GNU General Public License v3.0 or later
+ * which is available at:
+ * https://www.gnu.org/licenses/gpl-3.0.en.html
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-3.0-or-later
+ */
+package phodopus.video;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Steps by evaluating only the chips whose packed values changed since the last
+ * step, and rewiring only the routes from chips whose outputs changed.
+ * <p>
+ * Each thread keeps the chip values it last stepped from, and the wired
+ * results. A chip whose value is the same as before has the same outputs, and
+ * an input only changes if the output driving it does, so the results are
+ * patched from the last ones rather than built afresh. This holds whatever the
+ * last step was from, so states may be stepped in any order.
+ */
+final class EventStepper implements Simulation.Stepper
+{
+    private final Expression[][] outputs;
+
+    private final Simulation.Wiring wiring;
+
+    /**
+     * For each chip, the routes from its outputs.
+     */
+    private final int[][] fanOut;
+
+    private final ThreadLocal< Cache > caches;
+
+    /**
+     * The last values stepped from, and their results.
+     */
+    private static final class Cache
+    {
+        private final int[] values;
+
+        private final int[] results;
+
+        private final int[] changed;
+
+        private Cache( int chipCount )
+        {
+            // No chip value is negative, so every chip is evaluated the first time.
+            this.values = new int[ chipCount ];
+            Arrays.fill( this.values, -1 );
+            this.results = new int[ chipCount ];
+            this.changed = new int[ chipCount ];
+        }
+    }
+
+    EventStepper( List< Chip > chips, Simulation.Wiring wiring )
+    {
+        this.outputs = chips.stream().map( chip -> chip.outputs().toArray( Expression[]::new ) ).toArray( Expression[][]::new );
+        this.wiring = wiring;
+        this.fanOut = IntStream.range( 0, chips.size() )
+                               .mapToObj( chip -> IntStream.range( 0, wiring.size() )
+                                                           .filter( route -> wiring.sourceChip( route ) == chip )
+                                                           .toArray() )
+                               .toArray( int[][]::new );
+        this.caches = ThreadLocal.withInitial( () -> new Cache( chips.size() ) );
+    }
+
+    @Override
+    public void step( int[] values, int[] newValues )
+    {
+        Cache cache = this.caches.get();
+        int[] results = cache.results;
+        int[] changed = cache.changed;
+
+        // Evaluate the chips whose values changed, noting those whose outputs did.
+        int count = 0;
+        for ( int i = 0; i < values.length; i++ )
+        {
+            int value = values[ i ];
+            if ( value == cache.values[ i ] )
+            {
+                continue;
+            }
+            cache.values[ i ] = value;
+
+            Expression[] expressions = this.outputs[ i ];
+            int outputValue = 0;
+            for ( int j = 0; j < expressions.length; j++ )
+            {
+                if ( expressions[ j ].evaluate( value ) )
+                {
+                    outputValue |= 1 << j;
+                }
+            }
+
+            int outputMask = ( 1 << expressions.length ) - 1;
+            if ( ( results[ i ] & outputMask ) != outputValue )
+            {
+                results[ i ] = ( results[ i ] & ~outputMask ) | outputValue;
+                changed[ count++ ] = i;
+            }
+        }
+
+        // Propagate the changed outputs to the inputs they drive.
+        Simulation.Wiring wiring = this.wiring;
+        for ( int c = 0; c < count; c++ )
+        {
+            int source = changed[ c ];
+            for ( int route : this.fanOut[ source ] )
+            {
+                int bit = ( results[ source ] >>> wiring.sourceBit( route ) ) & 1;
+                int chip = wiring.destinationChip( route );
+                int mask = wiring.destinationMask( route );
+                results[ chip ] = ( results[ chip ] & ~mask ) | ( -bit & mask );
+            }
+        }
+
+        System.arraycopy( results, 0, newValues, 0, results.length );
+    }
+}
@@ -0,0 +1,380 @@
+/* Copyright © 2022 Matthew Wilson
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0
+ * which is available at:
+ * http://www.eclipse.org/legal/epl-2.0
+ * or the GNU General Public License v3.0 or later
+ * which is available at:
+ * https://www.gnu.org/licenses/gpl-3.0.en.html
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-3.0-or-later
+ */
+package phodopus.video;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Minimiser that searches for a cover with the fewest terms, within a
+ * wall-clock budget.
+ * <p>
+ * Prime implicants are generated by iterated consensus over packed
+ * {@link Cube}s, starting from the {@link EspressoMinimiser} cover: a dense
+ * table per don't-care mask would be far too big for 20-bit tables. The
+ * covering problem is then solved by branch and bound over the table words:
+ * each node branches on the primes covering an uncovered input with the fewest
+ * such primes, and is pruned when the terms chosen plus a lower bound on what
+ * is left cannot beat the best cover so far.
+ * <p>
+ * The lower bound is a set of inputs no two of which share a covering prime,
+ * since each of those needs a term of its own. When the budget runs out, the
+ * best cover found so far is returned together with the lower bound for the
+ * whole table. The budget covers the starting cover and the prime generation
+ * too: if it runs out before the search starts, the starting cover is returned
+ * with a bound of one term.
+ */
+public final class ExactMinimiser implements Minimiser
+{
+    /**
+     * Most inputs examined for branching and bounding at each node.
+     */
+    private static final int BOUND_SAMPLES = 4096;
+
+    /**
+     * Longest budget, in nanoseconds: about 73 years, short enough that the
+     * deadline can be compared by subtraction.
+     */
+    private static final long MAX_BUDGET = Long.MAX_VALUE >>> 2;
+
+    /**
+     * Returned by {@link #consensus(long, long)} when there is none. Not 0,
+     * which is the cube for every input: that is the consensus of a bit and its
+     * complement.
+     */
+    static final long NO_CONSENSUS = -1L;
+
+    private final long budget;
+
+    /**
+     * @param budget
+     *            how long to search before settling for the best cover so far;
+     *            anything over about 73 years is taken as that
+     */
+    public ExactMinimiser( Duration budget )
+    {
+        Preconditions.checkNotNull( budget, "budget" );
+        Preconditions.checkArgument( !budget.isNegative(), "Negative budget: %s", budget );
+        this.budget = budget.compareTo( Duration.ofNanos( MAX_BUDGET ) ) > 0 ? MAX_BUDGET : budget.toNanos();
+    }
+
+    /**
+     * @param cubes
+     *            the best cover found
+     * @param lowerBound
+     *            no cover has fewer terms than this
+     */
+    public record Result( long[] cubes, int lowerBound )
+    {
+        /**
+         * @return whether the cover is known to have the fewest terms possible
+         */
+        public boolean optimal()
+        {
+            return this.cubes.length <= this.lowerBound;
+        }
+    }
+
+    @Override
+    public long[] minimise( long[] words, int bitCount )
+    {
+        return solve( words, bitCount ).cubes();
+    }
+
+    public Result solve( long[] words, int bitCount )
+    {
+        Deadline deadline = Deadline.after( this.budget );
+        long[] start = new EspressoMinimiser().minimise( words, bitCount, deadline );
+        long[] allPrimes = primes( start, deadline );
+        if ( allPrimes == null )
+        {
+            // Out of time before the search could start: any non-empty table needs a term.
+            return new Result( start, start.length == 0 ? 0 : 1 );
+        }
+
+        // Trying the largest primes first finds good covers sooner.
+        long[] primes = Arrays.stream( allPrimes )
+                              .boxed()
+                              .sorted( Comparator.comparingInt( Cube::literals ) )
+                              .mapToLong( Long::longValue )
+                              .toArray();
+
+        Search search = new Search( primes, bitCount, deadline, start );
+        long[] todo = words.clone();
+        int rootBound = search.lowerBound( search.sample( todo ) );
+        search.branch( todo, new long[ start.length ], 0 );
+
+        int lowerBound = search.complete ? search.best.length : rootBound;
+        return new Result( search.best, lowerBound );
+    }
+
+    /**
+     * Generates every prime implicant of the function given by a cover, by
+     * adding the consensus of each pair of cubes until there are no more, and
+     * absorbing cubes contained by others as it goes.
+     *
+     * @param cover
+     *            cubes whose union is the function
+     * @return the prime implicants
+     */
+    public static long[] primes( long[] cover )
+    {
+        return primes( cover, Deadline.NONE );
+    }
+
+    /**
+     * As {@link #primes(long[])}, giving up once a deadline passes.
+     *
+     * @param deadline
+     *            when to give up
+     * @return the prime implicants, or null if the deadline passed first
+     */
+    private static long[] primes( long[] cover, Deadline deadline )
+    {
+        long[] cubes = new long[ Math.max( 16, cover.length * 2 ) ];
+        boolean[] absorbed = new boolean[ cubes.length ];
+        int size = 0;
+        for ( long cube : cover )
+        {
+            if ( add( cubes, absorbed, size, cube ) )
+            {
+                size++;
+            }
+        }
+
+        for ( int i = 0; i < size; i++ )
+        {
+            for ( int j = 0; j < i && !absorbed[ i ]; j++ )
+            {
+                if ( absorbed[ j ] )
+                {
+                    continue;
+                }
+
+                long consensus = consensus( cubes[ i ], cubes[ j ] );
+                if ( consensus == NO_CONSENSUS )
+                {
+                    continue;
+                }
+                if ( deadline.passed() )
+                {
+                    return null;
+                }
+
+                if ( size == cubes.length )
+                {
+                    cubes = Arrays.copyOf( cubes, size * 2 );
+                    absorbed = Arrays.copyOf( absorbed, size * 2 );
+                }
+                if ( add( cubes, absorbed, size, consensus ) )
+                {
+                    size++;
+                }
+            }
+        }
+
+        long[] result = new long[ size ];
+        int count = 0;
+        for ( int i = 0; i < size; i++ )
+        {
+            if ( !absorbed[ i ] )
+            {
+                result[ count++ ] = cubes[ i ];
+            }
+        }
+        return Arrays.copyOf( result, count );
+    }
+
+    /**
+     * Puts a cube at {@code cubes[size]} unless an existing cube contains it,
+     * absorbing any existing cubes that it contains.
+     *
+     * @return whether it was added
+     */
+    private static boolean add( long[] cubes, boolean[] absorbed, int size, long cube )
+    {
+        for ( int k = 0; k < size; k++ )
+        {
+            if ( !absorbed[ k ] && Cube.contains( cubes[ k ], cube ) )
+            {
+                return false;
+            }
+        }
+        for ( int k = 0; k < size; k++ )
+        {
+            if ( !absorbed[ k ] && Cube.contains( cube, cubes[ k ] ) )
+            {
+                absorbed[ k ] = true;
+            }
+        }
+        cubes[ size ] = cube;
+        absorbed[ size ] = false;
+        return true;
+    }
+
+    /**
+     * @return the consensus of two cubes that conflict in exactly one bit, or
+     *         {@link #NO_CONSENSUS} if there is none
+     */
+    static long consensus( long cube, long other )
+    {
+        int conflicts = Cube.interestMask( cube ) & Cube.interestMask( other )
+                        & ( Cube.setMask( cube ) ^ Cube.setMask( other ) );
+        if ( Integer.bitCount( conflicts ) != 1 )
+        {
+            return NO_CONSENSUS;
+        }
+
+        int interest = ( Cube.interestMask( cube ) | Cube.interestMask( other ) ) & ~conflicts;
+        int set = ( Cube.setMask( cube ) | Cube.setMask( other ) ) & interest;
+        return Cube.of( interest, set );
+    }
+
+    private static final class Search
+    {
+        private final long[] primes;
+
+        private final int bitCount;
+
+        private final Deadline deadline;
+
+        private long[] best;
+
+        private boolean complete = true;
+
+        Search( long[] primes, int bitCount, Deadline deadline, long[] best )
+        {
+            this.primes = primes;
+            this.bitCount = bitCount;
+            this.deadline = deadline;
+            this.best = best;
+        }
+
+        /**
+         * @param todo
+         *            the inputs not yet covered
+         * @param chosen
+         *            the primes chosen so far, in {@code chosen[0..count)}
+         */
+        void branch( long[] todo, long[] chosen, int count )
+        {
+            if ( this.deadline.passed() )
+            {
+                this.complete = false;
+                return;
+            }
+
+            if ( GreedyMinimiser.nextSetBit( todo, 0 ) < 0 )
+            {
+                this.best = Arrays.copyOf( chosen, count );
+                return;
+            }
+            int[][] coverings = sample( todo );
+            if ( count + lowerBound( coverings ) >= this.best.length )
+            {
+                return;
+            }
+
+            // Branch on the sampled input that fewest primes cover.
+            for ( int prime : coverings[ 0 ] )
+            {
+                long[] remaining = todo.clone();
+                Cube.clearAll( this.primes[ prime ], remaining, this.bitCount );
+                chosen[ count ] = this.primes[ prime ];
+                branch( remaining, chosen, count + 1 );
+                if ( count + 1 >= this.best.length )
+                {
+                    // Nothing further down this list can do better.
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Picks uncovered inputs spread evenly across the table.
+         *
+         * @return the primes covering each, fewest first
+         */
+        int[][] sample( long[] todo )
+        {
+            int stride = Math.max( 1, ( 1 << this.bitCount ) / BOUND_SAMPLES );
+            int[][] coverings = new int[ BOUND_SAMPLES ][];
+            int count = 0;
+            for ( int i = GreedyMinimiser.nextSetBit( todo, 0 );
+                  i >= 0 && count < coverings.length;
+                  i = GreedyMinimiser.nextSetBit( todo, i + stride ) )
+            {
+                coverings[ count++ ] = coveringPrimes( i );
+            }
+
+            int[][] result = Arrays.copyOf( coverings, count );
+            Arrays.sort( result, Comparator.comparingInt( covering -> covering.length ) );
+            return result;
+        }
+
+        /**
+         * Finds inputs whose covering primes are all different, since each
+         * needs a term of its own. Taking those covered by fewest primes first
+         * tends to find more.
+         *
+         * @param coverings
+         *            the primes covering some uncovered inputs, fewest first
+         */
+        int lowerBound( int[][] coverings )
+        {
+            long[] used = new long[ ( this.primes.length + 63 ) >>> 6 ];
+            int bound = 0;
+            for ( int[] covering : coverings )
+            {
+                boolean independent = true;
+                for ( int prime : covering )
+                {
+                    if ( ( used[ prime >>> 6 ] & ( 1L << prime ) ) != 0 )
+                    {
+                        independent = false;
+                        break;
+                    }
+                }
+                if ( independent )
+                {
+                    bound++;
+                    for ( int prime : covering )
+                    {
+                        used[ prime >>> 6 ] |= 1L << prime;
+                    }
+                }
+            }
+            return bound;
+        }
+
+        /**
+         * @return the indices of the primes covering an input, largest first
+         */
+        private int[] coveringPrimes( int input )
+        {
+            int[] result = new int[ this.primes.length ];
+            int count = 0;
+            for ( int i = 0; i < this.primes.length; i++ )
+            {
+                if ( Cube.test( this.primes[ i ], input ) )
+                {
+                    result[ count++ ] = i;
+                }
+            }
+            return Arrays.copyOf( result, count );
+        }
+    }
+}
@@ -0,0 +1,368 @@
+/* Copyright © 2022 Matthew Wilson
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0
+ * which is available at:
+ * http://www.eclipse.org/legal/epl-2.0
+ * or the GNU General Public License v3.0 or later
+ * which is available at:
+ * https://www.gnu.org/licenses/gpl-3.0.en.html
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-3.0-or-later
+ */
+package phodopus.video;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * On-disk cache of minimised covers, so that unchanged tables need not be
+ * minimised again.
+ * <p>
+ * Each cover is stored in its own file, named by a SHA-256 hash of the
+ * minimiser version, the bit count and the table words, holding a magic
+ * number, the cube count and the packed {@link Cube}s. Files are written to a
+ * temporary name and moved into place, so concurrent builds sharing the
+ * directory only ever see whole files; two builds writing the same cover just
+ * write the same bytes.
+ * <p>
+ * Reading a file marks it as recently used by touching its modification time.
+ * The cache keeps a running total of what it has written since it last
+ * scanned the directory, and once that would pass the bound it scans again,
+ * deleting the least recently used files until the total is three quarters of
+ * the bound, and any temporary files left by killed builds. Files written by
+ * other builds are only counted at a scan, so the bound is approximate when
+ * builds share the directory.
+ * <p>
+ * Failing to read or write the directory is never an error: a cover that
+ * cannot be read is minimised again, and one that cannot be written is not
+ * cached.
+ */
+public final class ExpressionCache
+{
+    /**
+     * System property naming the directory that {@link #fromSystemProperties()}
+     * uses.
+     */
+    public static final String DIRECTORY_PROPERTY = "phodopus.video.cache";
+
+    /**
+     * System property giving the size bound, in bytes, that
+     * {@link #fromSystemProperties()} uses.
+     */
+    public static final String SIZE_PROPERTY = "phodopus.video.cache.size";
+
+    private static final long DEFAULT_SIZE = 64L << 20;
+
+    private static final int MAGIC = 0x50564331; // "PVC1"
+
+    private static final int HEADER_SIZE = Integer.BYTES * 2;
+
+    private static final String SUFFIX = ".cubes";
+
+    private static final String PART_SUFFIX = ".part";
+
+    /**
+     * Age after which a temporary file is taken to be left by a killed build.
+     */
+    private static final Duration STALE_PART = Duration.ofMinutes( 10 );
+
+    private final Path directory;
+
+    private final long maxBytes;
+
+    /**
+     * The size of the cover files as of the last scan, plus what has been
+     * written since, or -1 before the first scan. Guarded by this.
+     */
+    private long size = -1;
+
+    private ExpressionCache( Path directory, long maxBytes )
+    {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param directory
+     *            the cache directory, created if need be
+     * @param maxBytes
+     *            the most the cover files may take up in total
+     * @return a cache
+     */
+    public static ExpressionCache open( Path directory, long maxBytes )
+    {
+        Preconditions.checkArgument( maxBytes > 0, "maxBytes must be positive" );
+        try
+        {
+            Files.createDirectories( directory );
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+        return new ExpressionCache( directory, maxBytes );
+    }
+
+    /**
+     * @return a cache in the directory given by {@link #DIRECTORY_PROPERTY},
+     *         bounded by {@link #SIZE_PROPERTY} (64MiB by default), or nothing
+     *         if the directory is not set
+     */
+    public static Optional< ExpressionCache > fromSystemProperties()
+    {
+        String directory = System.getProperty( DIRECTORY_PROPERTY );
+        if ( directory == null || directory.isEmpty() )
+        {
+            return Optional.empty();
+        }
+        long maxBytes = Long.getLong( SIZE_PROPERTY, DEFAULT_SIZE );
+        return Optional.of( open( Path.of( directory ), maxBytes ) );
+    }
+
+    /**
+     * Wraps a minimiser so that its covers come from the cache where possible.
+     *
+     * @param version
+     *            identifies the minimiser and its settings; change it whenever
+     *            the minimiser could give a different cover
+     * @param minimiser
+     *            the minimiser to call on a miss
+     * @return the caching minimiser
+     */
+    public Minimiser wrap( String version, Minimiser minimiser )
+    {
+        return ( words, bitCount ) ->
+        {
+            Path file = this.directory.resolve( key( version, words, bitCount ) + SUFFIX );
+            long[] cubes = read( file );
+            if ( cubes == null )
+            {
+                cubes = minimiser.minimise( words, bitCount );
+                write( file, cubes );
+            }
+            return cubes;
+        };
+    }
+
+    /**
+     * @return the hex SHA-256 of the version, bit count and words, ignoring
+     *         trailing zero words
+     */
+    static String key( String version, long[] words, int bitCount )
+    {
+        int length = words.length;
+        while ( length > 0 && words[ length - 1 ] == 0 )
+        {
+            length--;
+        }
+
+        byte[] versionBytes = version.getBytes( StandardCharsets.UTF_8 );
+        ByteBuffer buffer = ByteBuffer.allocate( Integer.BYTES * 2 + versionBytes.length + Long.BYTES * length );
+        buffer.putInt( versionBytes.length ).put( versionBytes ).putInt( bitCount );
+        buffer.asLongBuffer().put( words, 0, length );
+
+        try
+        {
+            return HexFormat.of().formatHex( MessageDigest.getInstance( "SHA-256" ).digest( buffer.array() ) );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            // Every Java platform has SHA-256.
+            throw new AssertionError( e );
+        }
+    }
+
+    /**
+     * @return the cubes, or null if the file is missing, unreadable or not a
+     *         whole cover
+     */
+    private static long[] read( Path file )
+    {
+        byte[] bytes;
+        try
+        {
+            bytes = Files.readAllBytes( file );
+        }
+        catch ( IOException e )
+        {
+            // Missing or unreadable: minimise it again.
+            return null;
+        }
+        try
+        {
+            Files.setLastModifiedTime( file, FileTime.fromMillis( System.currentTimeMillis() ) );
+        }
+        catch ( IOException e )
+        {
+            // Perhaps written by another user; it just looks older than it is.
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap( bytes );
+        if ( bytes.length < HEADER_SIZE || buffer.getInt() != MAGIC )
+        {
+            return null;
+        }
+        int count = buffer.getInt();
+        if ( count < 0 || bytes.length != HEADER_SIZE + (long) Long.BYTES * count )
+        {
+            return null;
+        }
+
+        long[] cubes = new long[ count ];
+        buffer.asLongBuffer().get( cubes );
+        return cubes;
+    }
+
+    private void write( Path file, long[] cubes )
+    {
+        ByteBuffer buffer = ByteBuffer.allocate( HEADER_SIZE + Long.BYTES * cubes.length );
+        buffer.putInt( MAGIC ).putInt( cubes.length );
+        buffer.asLongBuffer().put( cubes );
+
+        try
+        {
+            Path temporary = Files.createTempFile( this.directory, null, PART_SUFFIX );
+            try
+            {
+                Files.write( temporary, buffer.array() );
+                try
+                {
+                    Files.move( temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+                }
+                catch ( AtomicMoveNotSupportedException e )
+                {
+                    Files.move( temporary, file, StandardCopyOption.REPLACE_EXISTING );
+                }
+            }
+            finally
+            {
+                Files.deleteIfExists( temporary );
+            }
+
+            added( buffer.capacity() );
+        }
+        catch ( IOException e )
+        {
+            // A read-only or full directory only means a miss next time.
+        }
+    }
+
+    /**
+     * Counts a file just written, scanning the directory if the bound may have
+     * been passed.
+     */
+    private synchronized void added( long bytes ) throws IOException
+    {
+        if ( this.size >= 0 && this.size + bytes <= this.maxBytes )
+        {
+            this.size += bytes;
+        }
+        else
+        {
+            this.size = evict();
+        }
+    }
+
+    /**
+     * Deletes stale temporary files, and if the cover files do not fit, the
+     * least recently used of them until three quarters of the bound is left.
+     *
+     * @return the size of the cover files left
+     */
+    private long evict() throws IOException
+    {
+        record Entry( Path file, long size, FileTime time )
+        {
+        }
+
+        List< Entry > entries = new ArrayList<>();
+        long total = 0;
+        FileTime stale = FileTime.from( Instant.now().minus( STALE_PART ) );
+        try ( DirectoryStream< Path > files = Files.newDirectoryStream( this.directory ) )
+        {
+            for ( Path file : files )
+            {
+                String name = file.getFileName().toString();
+                boolean part = name.endsWith( PART_SUFFIX );
+                if ( !part && !name.endsWith( SUFFIX ) )
+                {
+                    continue;
+                }
+
+                BasicFileAttributes attributes;
+                try
+                {
+                    attributes = Files.readAttributes( file, BasicFileAttributes.class );
+                }
+                catch ( IOException e )
+                {
+                    // Another build evicted it, or it cannot be seen.
+                    continue;
+                }
+                if ( part )
+                {
+                    if ( attributes.lastModifiedTime().compareTo( stale ) < 0 )
+                    {
+                        try
+                        {
+                            Files.deleteIfExists( file );
+                        }
+                        catch ( IOException e )
+                        {
+                            // Perhaps not ours to delete.
+                        }
+                    }
+                    continue;
+                }
+                entries.add( new Entry( file, attributes.size(), attributes.lastModifiedTime() ) );
+                total += attributes.size();
+            }
+        }
+
+        if ( total <= this.maxBytes )
+        {
+            return total;
+        }
+
+        long target = this.maxBytes - this.maxBytes / 4;
+        entries.sort( Comparator.comparing( Entry::time ) );
+        for ( Entry entry : entries )
+        {
+            if ( total <= target )
+            {
+                break;
+            }
+            try
+            {
+                Files.deleteIfExists( entry.file() );
+                total -= entry.size();
+            }
+            catch ( IOException e )
+            {
+                // Perhaps not ours to delete; try the next oldest.
+            }
+        }
+        return total;
+    }
+}
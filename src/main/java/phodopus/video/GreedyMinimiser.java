@@ -0,0 +1,118 @@
+/* Copyright © 2022 Matthew Wilson
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0
+ * which is available at:
+ * http://www.eclipse.org/legal/epl-2.0
+ * or the GNU General Public License v3.0 or later
+ * which is available at:
+ * https://www.gnu.org/licenses/gpl-3.0.en.html
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-3.0-or-later
+ */
+package phodopus.video;
+
+import java.nio.LongBuffer;
+import java.util.stream.LongStream;
+
+/**
+ * Single greedy pass: each set bit not yet covered is expanded by dropping bits
+ * from low to high while the cube stays within the table.
+ * <p>
+ * Every cube is prime, but the cover may have more terms than necessary. It is
+ * fast, so it is the baseline.
+ */
+public final class GreedyMinimiser implements Minimiser
+{
+    @Override
+    public long[] minimise( long[] words, int bitCount )
+    {
+        return minimise( LongBuffer.wrap( words ), bitCount );
+    }
+
+    /**
+     * Works directly on the buffer, keeping the inputs still to cover in a
+     * buffer of the same kind: in a temporary mapped file when the table is off
+     * the heap.
+     */
+    @Override
+    public long[] minimise( LongBuffer words, int bitCount )
+    {
+        LongStream.Builder results = LongStream.builder();
+
+        int length = words.limit();
+        LongBuffer todo = words.isDirect() ? MappedTruthTable.scratch( length ) : LongBuffer.allocate( length );
+        todo.put( 0, words, 0, length );
+
+        // Pick a bit that is set but is not part of an existing expression (yet).
+        for ( int i = nextSetBit( todo, 0 ); i >= 0; i = nextSetBit( todo, i + 1 ) )
+        {
+            // Make a cube to match this output combination alone.
+            long cube = Cube.minterm( i, bitCount );
+
+            // Try dropping each of the bits to see if it still works.
+            for ( int bit = 0; bit < bitCount; bit++ )
+            {
+                // Speculatively try dropping.
+                long dropped = Cube.drop( cube, bit );
+                if ( Cube.testAll( dropped, words, bitCount ) )
+                {
+                    cube = dropped;
+                }
+            }
+
+            results.add( cube );
+
+            // Mark these bits as done.
+            Cube.clearAll( cube, todo, bitCount );
+        }
+
+        assert nextSetBit( todo, 0 ) < 0;
+
+        return results.build().toArray();
+    }
+
+    /**
+     * @return the index of the first set bit at or after {@code from}, or -1
+     */
+    static int nextSetBit( long[] words, int from )
+    {
+        int index = from >>> 6;
+        if ( index >= words.length )
+        {
+            return -1;
+        }
+
+        long word = words[ index ] & ( -1L << from );
+        while ( word == 0 )
+        {
+            if ( ++index >= words.length )
+            {
+                return -1;
+            }
+            word = words[ index ];
+        }
+        return ( index << 6 ) + Long.numberOfTrailingZeros( word );
+    }
+
+    private static int nextSetBit( LongBuffer words, int from )
+    {
+        int length = words.limit();
+        int index = from >>> 6;
+        if ( index >= length )
+        {
+            return -1;
+        }
+
+        long word = words.get( index ) & ( -1L << from );
+        while ( word == 0 )
+        {
+            if ( ++index >= length )
+            {
+                return -1;
+            }
+            word = words.get( index );
+        }
+        return ( index << 6 ) + Long.numberOfTrailingZeros( word );
+    }
+}
@@ -0,0 +1,222 @@
+/* Copyright © 2022 Matthew Wilson
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0
+ * which is available at:
+ * http://www.eclipse.org/legal/epl-2.0
+ * or the GNU General Public License v3.0 or later
+ * which is available at:
+ * https://www.gnu.org/licenses/gpl-3.0.en.html
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-3.0-or-later
+ */
+package phodopus.video;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Table of 'n' input bits giving one result bit for each combination, like
+ * {@link TruthTable}, but held in a memory-mapped file rather than on the heap.
+ * This suits tables of 25 to 30 inputs, which would otherwise take hundreds of
+ * megabytes of heap.
+ * <p>
+ * The file holds the table words in native byte order, input {@code i} being
+ * bit {@code i & 63} of word {@code i >>> 6}. It is overwritten when the table
+ * is created, and the mapping lasts until the table is garbage collected.
+ */
+public final class MappedTruthTable
+{
+    /**
+     * The most input bits: inputs must fit in a non-negative {@code int}.
+     */
+    public static final int MAX_BIT_COUNT = 30;
+
+    private final String name;
+
+    private final LongBuffer words;
+
+    private final int bitCount;
+
+    private MappedTruthTable( String name, LongBuffer words, int bitCount )
+    {
+        this.name = name;
+        this.words = words;
+        this.bitCount = bitCount;
+    }
+
+    /**
+     * Creates a table based on a number of inputs behaving as an integer,
+     * calling the tester for each input in parallel, so it must be free of side
+     * effects.
+     *
+     * @param name
+     *            the table name
+     * @param bitCount
+     *            count of input bits
+     * @param bitTester
+     *            tester that will be called for each input value
+     * @param file
+     *            the file to hold the table
+     * @return a new table
+     */
+    public static MappedTruthTable create( String name, int bitCount, IntPredicate bitTester, Path file )
+    {
+        return map( name, bitCount, i -> bitTester.test( i ) ? 1 : 0, file );
+    }
+
+    /**
+     * Creates a table based on a number of inputs behaving as an integer, giving
+     * an output as an integer, and sampling just one bit from that output.
+     *
+     * @param name
+     *            the table name
+     * @param bitCount
+     *            count of input bits
+     * @param operator
+     *            operator that will be called for each input value, in parallel
+     * @param bitOfInterest
+     *            the bit number of interest to sample from the output values
+     * @param file
+     *            the file to hold the table
+     * @return a new table
+     */
+    public static MappedTruthTable create( String name,
+                                           int bitCount,
+                                           IntUnaryOperator operator,
+                                           int bitOfInterest,
+                                           Path file )
+    {
+        return map( name, bitCount, i -> operator.applyAsInt( i ) >>> bitOfInterest, file );
+    }
+
+    private static MappedTruthTable map( String name, int bitCount, IntUnaryOperator operator, Path file )
+    {
+        Preconditions.checkArgument( bitCount >= 0 && bitCount <= MAX_BIT_COUNT,
+                                     "bitCount must be in [0, %s]: %s",
+                                     MAX_BIT_COUNT,
+                                     bitCount );
+
+        long wordCount = ( ( 1L << bitCount ) + 63 ) >>> 6;
+        LongBuffer words = map( file, wordCount * Long.BYTES, StandardOpenOption.TRUNCATE_EXISTING ).asLongBuffer();
+
+        TruthTable.fill( bitCount, operator, true, words );
+        return new MappedTruthTable( name, words, bitCount );
+    }
+
+    /**
+     * Maps zeroed words into a temporary file that is deleted once mapped, for
+     * scratch space that is neither on the heap nor limited like direct
+     * buffers.
+     *
+     * @param wordCount
+     *            the number of words
+     * @return the words
+     */
+    static LongBuffer scratch( long wordCount )
+    {
+        return scratchBytes( wordCount * Long.BYTES ).asLongBuffer();
+    }
+
+    /**
+     * Maps zeroed bytes as {@link #scratch(long)} does, in native byte order,
+     * for callers that need atomic access through a byte buffer view
+     * {@link java.lang.invoke.VarHandle}.
+     *
+     * @param byteCount
+     *            the number of bytes, at most {@link Integer#MAX_VALUE}
+     * @return the bytes
+     */
+    static ByteBuffer scratchBytes( long byteCount )
+    {
+        try
+        {
+            return map( Files.createTempFile( "phodopus", ".words" ), byteCount, StandardOpenOption.DELETE_ON_CLOSE );
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    private static ByteBuffer map( Path file, long byteCount, StandardOpenOption option )
+    {
+        try ( FileChannel channel = FileChannel.open( file,
+                                                      StandardOpenOption.CREATE,
+                                                      StandardOpenOption.READ,
+                                                      StandardOpenOption.WRITE,
+                                                      option ) )
+        {
+            return channel.map( MapMode.READ_WRITE, 0, byteCount ).order( ByteOrder.nativeOrder() );
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    public String name()
+    {
+        return this.name;
+    }
+
+    public int bitCount()
+    {
+        return this.bitCount;
+    }
+
+    /**
+     * @return a read-only view of the table words, indexed absolutely
+     */
+    public LongBuffer words()
+    {
+        return this.words.asReadOnlyBuffer();
+    }
+
+    public boolean get( int input )
+    {
+        return ( this.words.get( input >>> 6 ) & ( 1L << input ) ) != 0;
+    }
+
+    /**
+     * Optimises the table into an expression formed of an OR of ANDs, using the
+     * {@link GreedyMinimiser}, which works on the mapped words directly.
+     *
+     * @return an expression
+     */
+    public Expression optimise()
+    {
+        return optimise( new GreedyMinimiser() );
+    }
+
+    /**
+     * Optimises the table into an expression formed of an OR of ANDs.
+     *
+     * @param minimiser
+     *            the minimiser to use; unless it handles buffers itself, the
+     *            table is copied onto the heap
+     * @return an expression
+     */
+    public Expression optimise( Minimiser minimiser )
+    {
+        return TruthTable.expression( this.name, minimiser.minimise( words(), this.bitCount ) );
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.name;
+    }
+}
@@ -0,0 +1,69 @@
+/* Copyright © 2022 Matthew Wilson
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0
+ * which is available at:
+ * http://www.eclipse.org/legal/epl-2.0
+ * or the GNU General Public License v3.0 or later
+ * which is available at:
+ * https://www.gnu.org/licenses/gpl-3.0.en.html
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-3.0-or-later
+ */
+package phodopus.video;
+
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Asynchronous byte-wide memory, read through the simulated address pins. The
+ * pins are resolved into {@link Simulation.Bus} handles once, so each read is a
+ * few shifts and masks.
+ */
+final class Memory implements Simulation.Device
+{
+    private final byte[] contents;
+
+    private final Simulation.Bus address;
+
+    private final Simulation.Bus data;
+
+    private Memory( byte[] contents, Simulation.Bus address, Simulation.Bus data )
+    {
+        this.contents = contents;
+        this.address = address;
+        this.data = data;
+    }
+
+    static Memory create( Simulation simulation, String address, int addressWidth, String data, byte[] contents )
+    {
+        Preconditions.checkArgument( addressWidth > 0 && addressWidth < Integer.SIZE - 1,
+                                     "Bad address width: %s",
+                                     addressWidth );
+        Preconditions.checkArgument( contents.length == 1 << addressWidth,
+                                     "Expected %s bytes: %s",
+                                     1 << addressWidth,
+                                     contents.length );
+
+        for ( int i = 0; i < Byte.SIZE; i++ )
+        {
+            for ( Map.Entry< Integer, Integer > entry : simulation.pinMasks( data + i ).entrySet() )
+            {
+                Chip chip = simulation.chips().get( entry.getKey() );
+                Preconditions.checkArgument( entry.getValue() >= 1 << chip.outputs().size(),
+                                             "Data pin %s is driven by %s",
+                                             data + i,
+                                             chip.name() );
+            }
+        }
+
+        return new Memory( contents, simulation.bus( address, addressWidth ), simulation.bus( data, Byte.SIZE ) );
+    }
+
+    @Override
+    public void drive( int[] values )
+    {
+        this.data.set( values, this.contents[ this.address.get( values ) ] );
+    }
+}
@@ -0,0 +1,50 @@
+/* Copyright © 2022 Matthew Wilson
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0
+ * which is available at:
+ * http://www.eclipse.org/legal/epl-2.0
+ * or the GNU General Public License v3.0 or later
+ * which is available at:
+ * https://www.gnu.org/licenses/gpl-3.0.en.html
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-3.0-or-later
+ */
+package phodopus.video;
+
+import java.nio.LongBuffer;
+
+/**
+ * Two-level minimisation of a truth table into a sum of products.
+ */
+@FunctionalInterface
+public interface Minimiser
+{
+    /**
+     * @param words
+     *            the truth table, as from {@link java.util.BitSet#toLongArray()};
+     *            missing trailing words are zero
+     * @param bitCount
+     *            the bit count of the table
+     * @return {@link Cube}s whose union is exactly the set bits of the table
+     */
+    long[] minimise( long[] words, int bitCount );
+
+    /**
+     * Minimises a table held in a buffer, such as a mapped file. By default
+     * the words are copied onto the heap.
+     *
+     * @param words
+     *            the truth table, indexed absolutely; words from the limit on
+     *            are zero
+     * @param bitCount
+     *            the bit count of the table
+     * @return {@link Cube}s whose union is exactly the set bits of the table
+     */
+    default long[] minimise( LongBuffer words, int bitCount )
+    {
+        long[] copy = new long[ words.limit() ];
+        words.get( 0, copy );
+        return minimise( copy, bitCount );
+    }
+}
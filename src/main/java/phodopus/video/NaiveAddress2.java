@@ -13,6 +13,7 @@
 package phodopus.video;
 
 import static phodopus.video.Util.bitRange;
+import static phodopus.video.Util.build;
 import static phodopus.video.Util.concat;
 import static phodopus.video.Util.dumpAllExpressions;
 import static phodopus.video.Util.isSet;
@@ -30,10 +31,7 @@ public final class NaiveAddress2
 {
     public static void main( String[] args )
     {
-        Chip addr0 = addr0();
-        Chip addr1 = addr1();
-
-        List< Chip > chips = ImmutableList.of( addr0, addr1 );
+        List< Chip > chips = build( ImmutableList.of( NaiveAddress2::addr0, NaiveAddress2::addr1 ) );
         dumpAllExpressions( chips );
 
         Consumer< State > print =
@@ -12,25 +12,88 @@
  */
 package phodopus.video;
 
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Table;
 
 public final class Simulation
 {
+    /**
+     * How chip outputs are computed from the packed chip values.
+     */
+    public enum Engine
+    {
+        /**
+         * Evaluates every {@link And} of every {@link Expression} on each cycle.
+         */
+        INTERPRETED,
+
+        /**
+         * Precomputes, per chip, a table mapping every packed chip value to its
+         * packed outputs, so that each cycle is one array load per chip.
+         */
+        TABLE,
+
+        /**
+         * Generates a hidden class with a straight-line step method, with every
+         * expression and all the wiring inlined, so that the JIT can optimise
+         * across chips.
+         */
+        GENERATED,
+
+        /**
+         * Evaluates only the chips whose packed values changed since the last
+         * cycle, and rewires only the inputs driven by outputs that changed,
+         * so that the cost of a cycle follows activity rather than size.
+         */
+        EVENT
+    }
+
     private final List< Chip > chips;
     private final Table< String, Integer, Integer > inputMasks;
+    private final Wiring wiring;
+    private final Stepper stepper;
+    private final Device[] devices;
 
-    private Simulation( List< Chip > chips, Table< String, Integer, Integer > inputMasks )
+    private Simulation( List< Chip > chips, Table< String, Integer, Integer > inputMasks, Engine engine )
     {
         this.chips = chips;
         this.inputMasks = inputMasks;
+        this.wiring = Wiring.create( chips, inputMasks );
+        this.stepper = switch ( engine )
+        {
+            case INTERPRETED -> this::stepInterpreted;
+            case TABLE -> tableStepper( chips, this.wiring );
+            case GENERATED -> StepperGenerator.generate( chips, this.wiring );
+            case EVENT -> new EventStepper( chips, this.wiring );
+        };
+        this.devices = new Device[ 0 ];
+    }
+
+    private Simulation( Simulation simulation, Device device )
+    {
+        this.chips = simulation.chips;
+        this.inputMasks = simulation.inputMasks;
+        this.wiring = simulation.wiring;
+        this.stepper = simulation.stepper;
+        this.devices = Arrays.copyOf( simulation.devices, simulation.devices.length + 1 );
+        this.devices[ simulation.devices.length ] = device;
     }
 
     public static Simulation create( List< Chip > chips )
+    {
+        return create( chips, Engine.INTERPRETED );
+    }
+
+    public static Simulation create( List< Chip > chips, Engine engine )
     {
         Table< String, Integer, Integer > pinMasks = HashBasedTable.create();
         for ( int i = 0; i < chips.size(); i++ )
@@ -54,7 +117,93 @@ public final class Simulation
             }
         }
 
-        return new Simulation( chips, pinMasks );
+        return new Simulation( chips, pinMasks, engine );
+    }
+
+    private void stepInterpreted( int[] values, int[] newValues )
+    {
+        // Evaluate output expressions.  Leave inputs uninitialised for now.
+        for ( int i = 0; i < this.chips.size(); i++ )
+        {
+            Chip chip = this.chips.get( i );
+            int outputValue = 0;
+            for ( int j = 0; j < chip.outputs().size(); j++ )
+            {
+                if ( chip.outputs().get( j ).evaluate( values[ i ] ) )
+                {
+                    outputValue |= 1 << j;
+                }
+            }
+            newValues[ i ] = outputValue;
+        }
+
+        // Wire up inputs for next round.
+        this.wiring.apply( newValues );
+    }
+
+    private static Stepper tableStepper( List< Chip > chips, Wiring wiring )
+    {
+        short[][] tables = chips.stream().map( Simulation::outputTable ).toArray( short[][]::new );
+        return ( values, newValues ) ->
+        {
+            for ( int i = 0; i < tables.length; i++ )
+            {
+                newValues[ i ] = tables[ i ][ values[ i ] ];
+            }
+
+            wiring.apply( newValues );
+        };
+    }
+
+    /**
+     * Builds the complete next-output function of a chip. Each product term is
+     * painted into the entries it covers, rather than evaluating every
+     * expression for every input.
+     */
+    private static short[] outputTable( Chip chip )
+    {
+        int size = 1 << ( chip.outputs().size() + chip.inputs().size() );
+        short[] table = new short[ size ];
+        for ( int j = 0; j < chip.outputs().size(); j++ )
+        {
+            short bit = (short) ( 1 << j );
+            for ( And and : chip.outputs().get( j ).ands() )
+            {
+                // Visit every submask of the don't-care bits.
+                int free = ~and.interestMask() & ( size - 1 );
+                int x = 0;
+                do
+                {
+                    table[ and.setMask() | x ] |= bit;
+                    x = ( x - free ) & free;
+                }
+                while ( x != 0 );
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Attaches an asynchronous memory, such as video RAM: after each cycle, the
+     * data pins are driven from the byte at the address on the address pins.
+     * The data pins must not be driven by any chip. The contents are not
+     * copied, so changes to them show from the next cycle on.
+     * <p>
+     * {@link SlicedSimulation} does not model memories.
+     *
+     * @param address
+     *            the prefix of the address pins, numbered from 0
+     * @param addressWidth
+     *            the number of address pins
+     * @param data
+     *            the prefix of the data pins, numbered from 0 to 7
+     * @param contents
+     *            the memory contents, {@code 1 << addressWidth} bytes
+     * @return a simulation of the same chips with the memory attached
+     */
+    public Simulation withMemory( String address, int addressWidth, String data, byte[] contents )
+    {
+        return new Simulation( this, Memory.create( this, address, addressWidth, data, contents ) );
     }
 
     public List< Chip > chips()
@@ -62,6 +211,118 @@ public final class Simulation
         return this.chips;
     }
 
+    Wiring wiring()
+    {
+        return this.wiring;
+    }
+
+    /**
+     * @return the stepper alone, without any devices
+     */
+    Stepper stepper()
+    {
+        return this.stepper;
+    }
+
+    Map< Integer, Integer > pinMasks( String pin )
+    {
+        return this.inputMasks.row( pin );
+    }
+
+    /**
+     * Where a pin's value is held within the packed chip values.
+     */
+    record Location( int chip, int bit )
+    {
+    }
+
+    /**
+     * @return the location of a pin, preferring a chip that drives it
+     * @throws IllegalArgumentException
+     *             if no chip has the pin
+     */
+    Location locate( String pin )
+    {
+        Map< Integer, Integer > masks = this.inputMasks.row( pin );
+        Preconditions.checkArgument( !masks.isEmpty(), "Unknown pin: %s", pin );
+
+        Location found = null;
+        for ( Map.Entry< Integer, Integer > entry : masks.entrySet() )
+        {
+            int chip = entry.getKey();
+            int bit = Integer.numberOfTrailingZeros( entry.getValue() );
+            if ( bit < this.chips.get( chip ).outputs().size() )
+            {
+                return new Location( chip, bit );
+            }
+            found = new Location( chip, bit );
+        }
+        return found;
+    }
+
+    /**
+     * Resolves a pin once, for fast reads and writes of it.
+     *
+     * @param name
+     *            the pin name
+     * @return the pin handle
+     * @throws IllegalArgumentException
+     *             if no chip has the pin
+     */
+    public Pin pin( String name )
+    {
+        Location location = locate( name );
+        Map< Integer, Integer > masks = this.inputMasks.row( name );
+        return new Pin( name,
+                        location.chip(),
+                        location.bit(),
+                        masks.keySet().stream().mapToInt( Integer::intValue ).toArray(),
+                        masks.values().stream().mapToInt( Integer::intValue ).toArray() );
+    }
+
+    /**
+     * Resolves a bus of pins once, for fast reads and writes of it as a number.
+     *
+     * @param prefix
+     *            the prefix of the pin names, which are numbered from 0, least
+     *            significant first
+     * @param width
+     *            the number of pins
+     * @return the bus handle
+     * @throws IllegalArgumentException
+     *             if no chip has one of the pins
+     */
+    public Bus bus( String prefix, int width )
+    {
+        Preconditions.checkArgument( width > 0 && width < Integer.SIZE, "Bad width: %s", width );
+
+        // Bits that keep the same offset between the bus and a chip value move together.
+        Map< Long, Integer > reads = new LinkedHashMap<>();
+        Map< Long, Integer > writes = new LinkedHashMap<>();
+        for ( int i = 0; i < width; i++ )
+        {
+            Location location = locate( prefix + i );
+            reads.merge( segment( location.chip(), location.bit() - i ), 1 << i, ( a, b ) -> a | b );
+
+            for ( Map.Entry< Integer, Integer > entry : this.inputMasks.row( prefix + i ).entrySet() )
+            {
+                int bit = Integer.numberOfTrailingZeros( entry.getValue() );
+                writes.merge( segment( entry.getKey(), bit - i ), 1 << i, ( a, b ) -> a | b );
+            }
+        }
+        return new Bus( prefix, width, Bus.Segments.of( reads ), Bus.Segments.of( writes ) );
+    }
+
+    private static long segment( int chip, int offset )
+    {
+        return (long) chip << 32 | ( offset & 0xFFFFFFFFL );
+    }
+
+    State state( int[] values )
+    {
+        return new State( values.clone() );
+    }
+
     public State zeroState()
     {
         return new State( new int[ this.chips.size() ] );
@@ -81,6 +342,296 @@ public final class Simulation
         return new State( values ).wireInputs();
     }
 
+    /**
+     * Finds the cycle that an autonomous machine (that is, one with no inputs
+     * forced from outside) falls into from a starting state, using Brent's
+     * algorithm, and records it so that any later cycle can be reached without
+     * simulating up to it.
+     *
+     * @param start
+     *            the state at cycle 0
+     * @param limit
+     *            the most steps to take looking for the cycle
+     * @return the orbit, or empty if no cycle was found within the limit
+     */
+    public Optional< Orbit > findOrbit( State start, long limit )
+    {
+        int[] tortoise = start.values.clone();
+        int[] hare = new int[ tortoise.length ];
+        int[] spare = new int[ tortoise.length ];
+        nextImpl( tortoise, hare );
+
+        // The tortoise waits at each power of two for the hare to lap it.
+        long power = 1;
+        long period = 1;
+        for ( long steps = 1; !Arrays.equals( tortoise, hare ); steps++ )
+        {
+            if ( steps >= limit )
+            {
+                return Optional.empty();
+            }
+            if ( power == period )
+            {
+                System.arraycopy( hare, 0, tortoise, 0, hare.length );
+                power *= 2;
+                period = 0;
+            }
+
+            nextImpl( hare, spare );
+            int[] swap = hare;
+            hare = spare;
+            spare = swap;
+            period++;
+        }
+
+        // Find where the cycle starts: the hare starts one period ahead of the tortoise.
+        System.arraycopy( start.values, 0, tortoise, 0, tortoise.length );
+        System.arraycopy( start.values, 0, hare, 0, hare.length );
+        for ( long i = 0; i < period; i++ )
+        {
+            nextImpl( hare, spare );
+            int[] swap = hare;
+            hare = spare;
+            spare = swap;
+        }
+        long prefix = 0;
+        while ( !Arrays.equals( tortoise, hare ) )
+        {
+            nextImpl( tortoise, spare );
+            int[] swap = tortoise;
+            tortoise = spare;
+            spare = swap;
+
+            nextImpl( hare, spare );
+            swap = hare;
+            hare = spare;
+            spare = swap;
+            prefix++;
+        }
+
+        // Record the prefix and one full period.
+        int width = this.chips.size();
+        long count = prefix + period;
+        if ( count > Integer.MAX_VALUE / Math.max( width, 1 ) )
+        {
+            throw new IllegalArgumentException( "Orbit too long to record: " + count + " states" );
+        }
+        int[] states = new int[ (int) count * width ];
+        System.arraycopy( start.values, 0, states, 0, width );
+        for ( int i = 1; i < count; i++ )
+        {
+            System.arraycopy( states, ( i - 1 ) * width, tortoise, 0, width );
+            nextImpl( tortoise, hare );
+            System.arraycopy( hare, 0, states, i * width, width );
+        }
+
+        return Optional.of( new Orbit( states, prefix, period ) );
+    }
+
+    private void nextImpl( int[] values, int[] newValues )
+    {
+        this.stepper.step( values, newValues );
+        driveImpl( newValues );
+    }
+
+    private void wireInputsImpl( int[] newValues )
+    {
+        this.wiring.apply( newValues );
+        driveImpl( newValues );
+    }
+
+    private void driveImpl( int[] newValues )
+    {
+        for ( Device device : this.devices )
+        {
+            device.drive( newValues );
+        }
+    }
+
+    private void setImpl( int[] newValues, String input, boolean flag )
+    {
+        for ( Map.Entry< Integer, Integer > entry : this.inputMasks.row( input ).entrySet() )
+        {
+            int chip = entry.getKey();
+            int mask = entry.getValue();
+            newValues[ chip ] = flag ? newValues[ chip ] | mask : newValues[ chip ] & ~mask;
+        }
+    }
+
+    private void setNumberImpl( int[] newValues, String input, int count, int value )
+    {
+        for ( int i = 0; i < count; i++ )
+        {
+            setImpl( newValues, input + i, ( value & ( 1 << i ) ) != 0 );
+        }
+    }
+
+    private void dumpImpl( int[] values )
+    {
+        for ( int i = 0; i < this.chips.size(); i++ )
+        {
+            Chip chip = this.chips.get( i );
+            System.out.println( chip.name() + " " + chip.state( values[ i ] ) );
+        }
+    }
+
+    private boolean flagImpl( int[] values, String pin )
+    {
+        // Any match will do.
+        Map.Entry< Integer, Integer > entry = this.inputMasks.row( pin ).entrySet().iterator().next();
+        int value = values[ entry.getKey() ];
+        int mask = entry.getValue();
+        return ( value & mask ) != 0;
+    }
+
+    private int numberImpl( int[] values, String pin, int count )
+    {
+        // Any match will do, as long as it's an output.
+        Map.Entry< Integer, Integer > entry = null;
+        for ( Map.Entry< Integer, Integer > e : this.inputMasks.row( pin ).entrySet() )
+        {
+            Chip chip = this.chips.get( e.getKey() );
+            if ( e.getValue() < chip.outputs().size() )
+            {
+                entry = e;
+                break;
+            }
+        }
+        int value = values[ entry.getKey() ];
+        int start = Integer.numberOfTrailingZeros( entry.getValue() );
+        int mask = ( 1 << count ) - 1;
+        return ( value >>> start ) & mask;
+    }
+
+    /**
+     * A pin resolved into where it is read from, preferring a chip that drives
+     * it, and every chip value it is written to.
+     */
+    public static final class Pin
+    {
+        private final String name;
+
+        private final int chip;
+
+        private final int mask;
+
+        private final int[] chips;
+
+        private final int[] masks;
+
+        private Pin( String name, int chip, int bit, int[] chips, int[] masks )
+        {
+            this.name = name;
+            this.chip = chip;
+            this.mask = 1 << bit;
+            this.chips = chips;
+            this.masks = masks;
+        }
+
+        public String name()
+        {
+            return this.name;
+        }
+
+        boolean get( int[] values )
+        {
+            return ( values[ this.chip ] & this.mask ) != 0;
+        }
+
+        void set( int[] values, boolean flag )
+        {
+            for ( int i = 0; i < this.chips.length; i++ )
+            {
+                int chip = this.chips[ i ];
+                values[ chip ] = flag ? values[ chip ] | this.masks[ i ] : values[ chip ] & ~this.masks[ i ];
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return this.name;
+        }
+    }
+
+    /**
+     * Numbered pins resolved into segments: runs of bus bits that sit at a fixed
+     * offset within one chip value, so that each run moves with one shift and
+     * mask. A counter held on one chip reads as a single segment.
+     */
+    public static final class Bus
+    {
+        private final String prefix;
+
+        private final int width;
+
+        private final Segments reads;
+
+        private final Segments writes;
+
+        private Bus( String prefix, int width, Segments reads, Segments writes )
+        {
+            this.prefix = prefix;
+            this.width = width;
+            this.reads = reads;
+            this.writes = writes;
+        }
+
+        public String prefix()
+        {
+            return this.prefix;
+        }
+
+        public int width()
+        {
+            return this.width;
+        }
+
+        int get( int[] values )
+        {
+            Segments reads = this.reads;
+            int value = 0;
+            for ( int i = 0; i < reads.chips.length; i++ )
+            {
+                value |= shift( values[ reads.chips[ i ] ], -reads.offsets[ i ] ) & reads.masks[ i ];
+            }
+            return value;
+        }
+
+        void set( int[] values, int value )
+        {
+            Segments writes = this.writes;
+            for ( int i = 0; i < writes.chips.length; i++ )
+            {
+                int chip = writes.chips[ i ];
+                int offset = writes.offsets[ i ];
+                int mask = writes.masks[ i ];
+                values[ chip ] = ( values[ chip ] & ~shift( mask, offset ) ) | shift( value & mask, offset );
+            }
+        }
+
+        private static int shift( int value, int offset )
+        {
+            return offset >= 0 ? value << offset : value >>> -offset;
+        }
+
+        @Override
+        public String toString()
+        {
+            return this.prefix + "[" + ( this.width - 1 ) + ":0]";
+        }
+
+        private record Segments( int[] chips, int[] offsets, int[] masks )
+        {
+            static Segments of( Map< Long, Integer > segments )
+            {
+                return new Segments( segments.keySet().stream().mapToInt( key -> (int) ( key >>> 32 ) ).toArray(),
+                                     segments.keySet().stream().mapToInt( Long::intValue ).toArray(),
+                                     segments.values().stream().mapToInt( Integer::intValue ).toArray() );
+            }
+        }
+    }
+
     public final class State
     {
         private final int[] values;
@@ -100,37 +651,28 @@ public final class Simulation
         public State withNumber( String input, int count, int value )
         {
             int[] newValues = this.values.clone();
-            for ( int i = 0; i < count; i++ )
-            {
-                setImpl( newValues, input + i, ( value & ( 1 << i ) ) != 0 );
-            }
+            setNumberImpl( newValues, input, count, value );
             return new State( newValues );
         }
 
-        public State next()
+        public State with( Pin input, boolean flag )
         {
-            int[] newValues = new int[ this.values.length ];
-
-            // Evaluate output expressions.
-            for ( int i = 0; i < Simulation.this.chips.size(); i++ )
-            {
-                Chip chip = Simulation.this.chips.get( i );
-                int outputValue = 0;
-                for ( int j = 0; j < chip.outputs().size(); j++ )
-                {
-                    if ( chip.outputs().get( j ).evaluate( this.values[ i ] ) )
-                    {
-                        outputValue |= 1 << j;
-                    }
-                }
-
-                // Leave inputs uninitialised for now.
-                newValues[ i ] = outputValue;
-            }
+            int[] newValues = this.values.clone();
+            input.set( newValues, flag );
+            return new State( newValues );
+        }
 
-            // Wire up inputs for next round.
-            wireInputsImpl( newValues );
+        public State withNumber( Bus input, int value )
+        {
+            int[] newValues = this.values.clone();
+            input.set( newValues, value );
+            return new State( newValues );
+        }
 
+        public State next()
+        {
+            int[] newValues = new int[ this.values.length ];
+            nextImpl( this.values, newValues );
             return new State( newValues );
         }
 
@@ -141,60 +683,159 @@ public final class Simulation
             return new State( newValues );
         }
 
-        private void wireInputsImpl( int[] newValues )
+        /**
+         * @return a cursor starting from this state
+         */
+        public MutableState toMutable()
         {
-            for ( int i = 0; i < Simulation.this.chips.size(); i++ )
-            {
-                Chip chip = Simulation.this.chips.get( i );
-                for ( int j = 0; j < chip.outputs().size(); j++ )
-                {
-                    setImpl( newValues,
-                             chip.outputs().get( j ).name(),
-                             ( ( newValues[ i ] >>> j ) & 1 ) != 0 );
-                }
-            }
+            return new MutableState( this.values.clone() );
         }
 
-        private void setImpl( int[] newValues, String input, boolean flag )
+        int value( int chip )
         {
-            for ( Map.Entry< Integer, Integer > entry : Simulation.this.inputMasks.row( input ).entrySet() )
-            {
-                int chip = entry.getKey();
-                int mask = entry.getValue();
-                newValues[ chip ] = flag ? newValues[ chip ] | mask : newValues[ chip ] & ~mask;
-            }
+            return this.values[ chip ];
+        }
+
+        public void dump()
+        {
+            dumpImpl( this.values );
+        }
+
+        public boolean flag( String pin )
+        {
+            return flagImpl( this.values, pin );
+        }
+
+        public String formattedFlag( String pin )
+        {
+            return ( flag( pin ) ? ' ' : '/' ) + pin;
+        }
+
+        public int number( String pin, int count )
+        {
+            return numberImpl( this.values, pin, count );
+        }
+
+        public boolean flag( Pin pin )
+        {
+            return pin.get( this.values );
+        }
+
+        public int number( Bus bus )
+        {
+            return bus.get( this.values );
+        }
+
+        /**
+         * Records the signals of this state.
+         *
+         * @param trace
+         *            the trace to record to
+         * @return this
+         */
+        public State trace( TraceSink trace )
+        {
+            trace.record( this.values );
+            return this;
+        }
+
+        private Simulation simulation()
+        {
+            return Simulation.this;
+        }
+
+        @Override
+        public boolean equals( Object obj )
+        {
+            return obj instanceof State state
+                   && state.simulation() == Simulation.this
+                   && Arrays.equals( state.values, this.values );
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Arrays.hashCode( this.values );
+        }
+    }
+
+    /**
+     * Stepping cursor that advances in place, alternating between two
+     * preallocated buffers, so that long runs produce no garbage. Take a
+     * {@link #snapshot()} to keep a {@link State}.
+     */
+    public final class MutableState
+    {
+        private int[] values;
+
+        private int[] spare;
+
+        private MutableState( int[] values )
+        {
+            this.values = values;
+            this.spare = new int[ values.length ];
+        }
+
+        public MutableState set( String input, boolean flag )
+        {
+            setImpl( this.values, input, flag );
+            return this;
+        }
+
+        public MutableState setNumber( String input, int count, int value )
+        {
+            setNumberImpl( this.values, input, count, value );
+            return this;
+        }
+
+        public MutableState set( Pin input, boolean flag )
+        {
+            input.set( this.values, flag );
+            return this;
+        }
 
-//            // TODO build an index
-//            for ( int i = 0; i < Simulation.this.chips.size(); i++ )
-//            {
-//                Chip chip = Simulation.this.chips.get( i );
-//                int index = chip.inputs().indexOf( input );
-//                if ( index >= 0 )
-//                {
-//                    // Outputs are first, then inputs.
-//                    int fullIndex = index + chip.outputs().size();
-//                    int mask = 1 << fullIndex;
-//                    newValues[ i ] = flag ? newValues[ i ] | mask : newValues[ i ] & ~mask;
-//                }
-//            }
+        public MutableState setNumber( Bus input, int value )
+        {
+            input.set( this.values, value );
+            return this;
+        }
+
+        public MutableState next()
+        {
+            nextImpl( this.values, this.spare );
+
+            int[] swap = this.values;
+            this.values = this.spare;
+            this.spare = swap;
+            return this;
+        }
+
+        /**
+         * Replaces the current values with those of a state.
+         *
+         * @param state
+         *            the state to copy
+         * @return this
+         */
+        public MutableState load( State state )
+        {
+            System.arraycopy( state.values, 0, this.values, 0, this.values.length );
+            return this;
+        }
+
+        public State snapshot()
+        {
+            return new State( this.values.clone() );
         }
 
         public void dump()
         {
-            for ( int i = 0; i < Simulation.this.chips.size(); i++ )
-            {
-                Chip chip = Simulation.this.chips.get( i );
-                System.out.println( chip.name() + " " + chip.state( this.values[ i ] ) );
-            }
+            dumpImpl( this.values );
         }
 
         public boolean flag( String pin )
         {
-            // Any match will do.
-            Map.Entry< Integer, Integer > entry = Simulation.this.inputMasks.row( pin ).entrySet().iterator().next();
-            int value = this.values[ entry.getKey() ];
-            int mask = entry.getValue();
-            return ( value & mask ) != 0;
+            return flagImpl( this.values, pin );
         }
 
         public String formattedFlag( String pin )
@@ -204,21 +845,201 @@ public final class Simulation
 
         public int number( String pin, int count )
         {
-            // Any match will do, as long as it's an output.
-            Map.Entry< Integer, Integer > entry = null;
-            for ( Map.Entry< Integer, Integer > e : Simulation.this.inputMasks.row( pin ).entrySet() )
+            return numberImpl( this.values, pin, count );
+        }
+
+        public boolean flag( Pin pin )
+        {
+            return pin.get( this.values );
+        }
+
+        public int number( Bus bus )
+        {
+            return bus.get( this.values );
+        }
+
+        /**
+         * Records the signals of the current values.
+         *
+         * @param trace
+         *            the trace to record to
+         * @return this
+         */
+        public MutableState trace( TraceSink trace )
+        {
+            trace.record( this.values );
+            return this;
+        }
+    }
+
+    /**
+     * The states of an autonomous machine from some starting state: a prefix
+     * leading into a cycle, recorded once so that the state at any cycle can be
+     * looked up directly.
+     */
+    public final class Orbit
+    {
+        private final int[] states;
+
+        private final long prefix;
+
+        private final long period;
+
+        private Orbit( int[] states, long prefix, long period )
+        {
+            this.states = states;
+            this.prefix = prefix;
+            this.period = period;
+        }
+
+        /**
+         * @return the number of cycles before the machine first enters its cycle
+         */
+        public long prefix()
+        {
+            return this.prefix;
+        }
+
+        /**
+         * @return the number of cycles in one trip around the cycle
+         */
+        public long period()
+        {
+            return this.period;
+        }
+
+        /**
+         * @param cycle
+         *            the cycle, counting from the starting state as 0
+         * @return the state at that cycle
+         */
+        public State at( long cycle )
+        {
+            Preconditions.checkArgument( cycle >= 0, "Negative cycle" );
+
+            long index = cycle < this.prefix ? cycle : this.prefix + ( cycle - this.prefix ) % this.period;
+            int width = Simulation.this.chips.size();
+            int from = (int) index * width;
+            return new State( Arrays.copyOfRange( this.states, from, from + width ) );
+        }
+    }
+
+    /**
+     * The netlist compiled into flat routes, each from one output bit of a source
+     * chip to the matching input mask of a destination chip, so that wiring up
+     * inputs needs no pin name lookups.
+     */
+    static final class Wiring
+    {
+        private final int[] sourceChips;
+        private final int[] sourceBits;
+        private final int[] destinationChips;
+        private final int[] destinationMasks;
+
+        private Wiring( int[] sourceChips, int[] sourceBits, int[] destinationChips, int[] destinationMasks )
+        {
+            this.sourceChips = sourceChips;
+            this.sourceBits = sourceBits;
+            this.destinationChips = destinationChips;
+            this.destinationMasks = destinationMasks;
+        }
+
+        static Wiring create( List< Chip > chips, Table< String, Integer, Integer > pinMasks )
+        {
+            IntStream.Builder sourceChips = IntStream.builder();
+            IntStream.Builder sourceBits = IntStream.builder();
+            IntStream.Builder destinationChips = IntStream.builder();
+            IntStream.Builder destinationMasks = IntStream.builder();
+            for ( int i = 0; i < chips.size(); i++ )
             {
-                Chip chip = Simulation.this.chips.get( e.getKey() );
-                if ( e.getValue() < chip.outputs().size() )
+                Chip chip = chips.get( i );
+                for ( int j = 0; j < chip.outputs().size(); j++ )
                 {
-                    entry = e;
-                    break;
+                    for ( Map.Entry< Integer, Integer > entry : pinMasks.row( chip.outputs().get( j ).name() ).entrySet() )
+                    {
+                        if ( entry.getKey() == i && entry.getValue() == 1 << j )
+                        {
+                            // That's the output itself.
+                            continue;
+                        }
+                        sourceChips.add( i );
+                        sourceBits.add( j );
+                        destinationChips.add( entry.getKey() );
+                        destinationMasks.add( entry.getValue() );
+                    }
                 }
             }
-            int value = this.values[ entry.getKey() ];
-            int start = Integer.numberOfTrailingZeros( entry.getValue() );
-            int mask = ( 1 << count ) - 1;
-            return ( value >>> start ) & mask;
+
+            return new Wiring( sourceChips.build().toArray(),
+                               sourceBits.build().toArray(),
+                               destinationChips.build().toArray(),
+                               destinationMasks.build().toArray() );
+        }
+
+        int size()
+        {
+            return this.sourceChips.length;
+        }
+
+        int sourceChip( int route )
+        {
+            return this.sourceChips[ route ];
+        }
+
+        int sourceBit( int route )
+        {
+            return this.sourceBits[ route ];
+        }
+
+        int destinationChip( int route )
+        {
+            return this.destinationChips[ route ];
+        }
+
+        int destinationMask( int route )
+        {
+            return this.destinationMasks[ route ];
+        }
+
+        /**
+         * Copies every output bit onto the inputs it drives.
+         *
+         * @param values
+         *            packed chip values, updated in place
+         */
+        void apply( int[] values )
+        {
+            for ( int i = 0; i < this.sourceChips.length; i++ )
+            {
+                int bit = ( values[ this.sourceChips[ i ] ] >>> this.sourceBits[ i ] ) & 1;
+                int chip = this.destinationChips[ i ];
+                int mask = this.destinationMasks[ i ];
+                values[ chip ] = ( values[ chip ] & ~mask ) | ( -bit & mask );
+            }
         }
     }
+
+    /**
+     * Computes the next packed chip values: the outputs of every chip, with the
+     * inputs they drive wired up for the next round and any other inputs zero.
+     */
+    @FunctionalInterface
+    interface Stepper
+    {
+        void step( int[] values, int[] newValues );
+    }
+
+    /**
+     * Something outside the chips that drives some of their inputs, once the
+     * chip outputs of a cycle are known.
+     */
+    @FunctionalInterface
+    interface Device
+    {
+        /**
+         * @param values
+         *            packed chip values, with inputs wired up, updated in place
+         */
+        void drive( int[] values );
+    }
 }
@@ -0,0 +1,243 @@
+/* Copyright © 2022 Matthew Wilson
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0
+ * which is available at:
+ * http://www.eclipse.org/legal/epl-2.0
+ * or the GNU General Public License v3.0 or later
+ * which is available at:
+ * https://www.gnu.org/licenses/gpl-3.0.en.html
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-3.0-or-later
+ */
+package phodopus.video;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Bit-sliced simulation of up to 64 independent machines at once.
+ * <p>
+ * Each pin is a {@code long} holding that pin for every lane, so an {@link And}
+ * becomes a word-wide AND of pins (or their complements), and each step advances
+ * all the machines together.
+ */
+public final class SlicedSimulation
+{
+    public static final int LANES = Long.SIZE;
+
+    private final Simulation simulation;
+
+    /**
+     * Index of each chip's first pin within the flat pin array; the last entry
+     * is the total pin count.
+     */
+    private final int[] offsets;
+
+    /**
+     * Output pin to input pin routes, as flat pin indices.
+     */
+    private final int[] routeFrom;
+    private final int[] routeTo;
+
+    private SlicedSimulation( Simulation simulation, int[] offsets, int[] routeFrom, int[] routeTo )
+    {
+        this.simulation = simulation;
+        this.offsets = offsets;
+        this.routeFrom = routeFrom;
+        this.routeTo = routeTo;
+    }
+
+    public static SlicedSimulation create( Simulation simulation )
+    {
+        List< Chip > chips = simulation.chips();
+        int[] offsets = new int[ chips.size() + 1 ];
+        for ( int i = 0; i < chips.size(); i++ )
+        {
+            Chip chip = chips.get( i );
+            offsets[ i + 1 ] = offsets[ i ] + chip.outputs().size() + chip.inputs().size();
+        }
+
+        Simulation.Wiring wiring = simulation.wiring();
+        int[] routeFrom = new int[ wiring.size() ];
+        int[] routeTo = new int[ wiring.size() ];
+        for ( int i = 0; i < wiring.size(); i++ )
+        {
+            routeFrom[ i ] = offsets[ wiring.sourceChip( i ) ] + wiring.sourceBit( i );
+            routeTo[ i ] = offsets[ wiring.destinationChip( i ) ]
+                           + Integer.numberOfTrailingZeros( wiring.destinationMask( i ) );
+        }
+
+        return new SlicedSimulation( simulation, offsets, routeFrom, routeTo );
+    }
+
+    public Simulation simulation()
+    {
+        return this.simulation;
+    }
+
+    public State zeroState()
+    {
+        return new State( new long[ this.offsets[ this.offsets.length - 1 ] ] );
+    }
+
+    /**
+     * @return a state where every lane starts from its own arbitrary value
+     */
+    public State randomState()
+    {
+        long[] pins = new long[ this.offsets[ this.offsets.length - 1 ] ];
+        for ( int i = 0; i < pins.length; i++ )
+        {
+            pins[ i ] = ThreadLocalRandom.current().nextLong();
+        }
+
+        // Ensure they are consistent.
+        wireInputsImpl( pins );
+        return new State( pins );
+    }
+
+    /**
+     * Packs scalar states into lanes 0..states.size()-1; any remaining lanes are
+     * zero.
+     *
+     * @param states
+     *            up to {@link #LANES} states of this simulation
+     * @return the sliced state
+     */
+    public State of( List< Simulation.State > states )
+    {
+        Preconditions.checkArgument( states.size() <= LANES, "Too many states" );
+
+        long[] pins = new long[ this.offsets[ this.offsets.length - 1 ] ];
+        for ( int lane = 0; lane < states.size(); lane++ )
+        {
+            Simulation.State state = states.get( lane );
+            for ( int i = 0; i < this.offsets.length - 1; i++ )
+            {
+                int value = state.value( i );
+                for ( int pin = this.offsets[ i ]; pin < this.offsets[ i + 1 ]; pin++ )
+                {
+                    pins[ pin ] |= (long) ( value & 1 ) << lane;
+                    value >>>= 1;
+                }
+            }
+        }
+        return new State( pins );
+    }
+
+    private void wireInputsImpl( long[] pins )
+    {
+        for ( int i = 0; i < this.routeFrom.length; i++ )
+        {
+            pins[ this.routeTo[ i ] ] = pins[ this.routeFrom[ i ] ];
+        }
+    }
+
+    public final class State
+    {
+        private final long[] pins;
+
+        private State( long[] pins )
+        {
+            this.pins = pins;
+        }
+
+        /**
+         * @param input
+         *            the pin name
+         * @param lanes
+         *            the value for each lane
+         * @return a new state
+         */
+        public State with( String input, long lanes )
+        {
+            long[] newPins = this.pins.clone();
+            for ( Map.Entry< Integer, Integer > entry : SlicedSimulation.this.simulation.pinMasks( input ).entrySet() )
+            {
+                newPins[ SlicedSimulation.this.offsets[ entry.getKey() ]
+                         + Integer.numberOfTrailingZeros( entry.getValue() ) ] = lanes;
+            }
+            return new State( newPins );
+        }
+
+        public State next()
+        {
+            List< Chip > chips = SlicedSimulation.this.simulation.chips();
+            int[] offsets = SlicedSimulation.this.offsets;
+            long[] newPins = new long[ this.pins.length ];
+
+            // Evaluate output expressions.  Leave inputs uninitialised for now.
+            for ( int i = 0; i < chips.size(); i++ )
+            {
+                int base = offsets[ i ];
+                List< Expression > outputs = chips.get( i ).outputs();
+                for ( int j = 0; j < outputs.size(); j++ )
+                {
+                    long result = 0;
+                    for ( And and : outputs.get( j ).ands() )
+                    {
+                        long term = -1L;
+                        int interest = and.interestMask();
+                        int set = and.setMask();
+                        while ( interest != 0 && term != 0 )
+                        {
+                            int bit = Integer.numberOfTrailingZeros( interest );
+
+                            // Take the pin as-is if it must be set, else its complement.
+                            term &= this.pins[ base + bit ] ^ ( ( ( set >>> bit ) & 1 ) - 1L );
+                            interest &= interest - 1;
+                        }
+                        result |= term;
+                    }
+                    newPins[ base + j ] = result;
+                }
+            }
+
+            // Wire up inputs for next round.
+            wireInputsImpl( newPins );
+
+            return new State( newPins );
+        }
+
+        /**
+         * @param pin
+         *            the pin name
+         * @return the pin's value in every lane
+         */
+        public long flag( String pin )
+        {
+            // Any match will do.
+            Map.Entry< Integer, Integer > entry =
+                SlicedSimulation.this.simulation.pinMasks( pin ).entrySet().iterator().next();
+            return this.pins[ SlicedSimulation.this.offsets[ entry.getKey() ]
+                              + Integer.numberOfTrailingZeros( entry.getValue() ) ];
+        }
+
+        /**
+         * Extracts one machine.
+         *
+         * @param lane
+         *            the lane, 0..63
+         * @return the state of that lane
+         */
+        public Simulation.State lane( int lane )
+        {
+            int[] offsets = SlicedSimulation.this.offsets;
+            int[] values = new int[ offsets.length - 1 ];
+            for ( int i = 0; i < values.length; i++ )
+            {
+                int value = 0;
+                for ( int pin = offsets[ i + 1 ] - 1; pin >= offsets[ i ]; pin-- )
+                {
+                    value = ( value << 1 ) | (int) ( ( this.pins[ pin ] >>> lane ) & 1 );
+                }
+                values[ i ] = value;
+            }
+            return SlicedSimulation.this.simulation.state( values );
+        }
+    }
+}
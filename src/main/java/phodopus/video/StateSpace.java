@@ -0,0 +1,342 @@
+/* Copyright © 2022 Matthew Wilson
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0
+ * which is available at:
+ * http://www.eclipse.org/legal/epl-2.0
+ * or the GNU General Public License v3.0 or later
+ * which is available at:
+ * https://www.gnu.org/licenses/gpl-3.0.en.html
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-3.0-or-later
+ */
+package phodopus.video;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Every power-up state of a {@link Simulation}, explored exhaustively to show
+ * that each one runs into the same loop as a reset does, rather than locking
+ * up in a loop of its own.
+ * <p>
+ * A state is the chip outputs alone, packed into a long: inputs are wired from
+ * outputs, and inputs that no chip drives are zero, as after any
+ * {@link Simulation.State#next()}. Attached memories are not modelled.
+ * <p>
+ * The machine is deterministic, so each state leads along a single path.
+ * States are checked in parallel: each path is followed until it meets a state
+ * already known to reach the loop, and then every state on it is marked as
+ * reaching the loop too, in an off-heap bitmap with a bit per state. A path
+ * that comes back on itself first has found a lock-up, which Brent's algorithm
+ * spots without keeping the path in a set.
+ */
+public final class StateSpace
+{
+    /**
+     * The most state bits: the bitmap is a single buffer of at most 1GiB.
+     */
+    public static final int MAX_BIT_COUNT = 33;
+
+    private static final VarHandle WORDS = MethodHandles.byteBufferViewVarHandle( long[].class,
+                                                                                  ByteOrder.nativeOrder() );
+
+    /**
+     * States per parallel task.
+     */
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private final Simulation simulation;
+
+    private final Simulation.Stepper stepper;
+
+    private final Simulation.Wiring wiring;
+
+    /**
+     * For each chip, where its outputs start in a packed state.
+     */
+    private final int[] offsets;
+
+    private final int[] outputMasks;
+
+    private final int bitCount;
+
+    private StateSpace( Simulation simulation, int[] offsets, int[] outputMasks, int bitCount )
+    {
+        this.simulation = simulation;
+        this.stepper = simulation.stepper();
+        this.wiring = simulation.wiring();
+        this.offsets = offsets;
+        this.outputMasks = outputMasks;
+        this.bitCount = bitCount;
+    }
+
+    /**
+     * @param simulation
+     *            the simulation, whose chips have at most
+     *            {@link #MAX_BIT_COUNT} outputs in total
+     * @return the state space
+     */
+    public static StateSpace create( Simulation simulation )
+    {
+        List< Chip > chips = simulation.chips();
+        int[] offsets = new int[ chips.size() ];
+        int[] outputMasks = new int[ chips.size() ];
+        int bitCount = 0;
+        for ( int i = 0; i < chips.size(); i++ )
+        {
+            int outputCount = chips.get( i ).outputs().size();
+            offsets[ i ] = bitCount;
+            outputMasks[ i ] = ( 1 << outputCount ) - 1;
+            bitCount += outputCount;
+        }
+        Preconditions.checkArgument( bitCount <= MAX_BIT_COUNT,
+                                     "Too many state bits: %s > %s",
+                                     bitCount,
+                                     MAX_BIT_COUNT );
+
+        return new StateSpace( simulation, offsets, outputMasks, bitCount );
+    }
+
+    /**
+     * @return the number of state bits: the outputs of every chip
+     */
+    public int bitCount()
+    {
+        return this.bitCount;
+    }
+
+    /**
+     * The outcome of {@link StateSpace#explore(Simulation.State)}.
+     *
+     * @param stateCount
+     *            the number of states explored
+     * @param loopLength
+     *            the number of states in the loop that reset leads into
+     * @param counterexample
+     *            empty if every state reaches the loop; otherwise a path from
+     *            a state that never does, ending with the first state to be
+     *            repeated
+     */
+    public record Result( long stateCount, long loopLength, List< Simulation.State > counterexample )
+    {
+        public boolean lockUpFree()
+        {
+            return this.counterexample.isEmpty();
+        }
+    }
+
+    /**
+     * Checks that every state leads into the loop that a reset leads into.
+     *
+     * @param reset
+     *            the state after reset, such as the zero state with
+     *            {@code Clear} set, stepped once
+     * @return the result
+     */
+    public Result explore( Simulation.State reset )
+    {
+        long stateCount = 1L << this.bitCount;
+        ByteBuffer reaches = MappedTruthTable.scratchBytes( Math.max( Long.BYTES, stateCount / Byte.SIZE ) );
+        int[] values = new int[ this.offsets.length ];
+        int[] newValues = new int[ this.offsets.length ];
+
+        // Find the loop from reset, and mark it as reaching itself.
+        Arrays.setAll( values, reset::value );
+        long start = pack( values );
+        long loopState = findLoop( start, values, newValues );
+        long loopLength = 0;
+        long state = loopState;
+        do
+        {
+            mark( reaches, state );
+            state = next( state, values, newValues );
+            loopLength++;
+        }
+        while ( state != loopState );
+
+        AtomicReference< Long > lockUp = new AtomicReference<>();
+        long chunkCount = ( stateCount + CHUNK_SIZE - 1 ) / CHUNK_SIZE;
+        LongStream.range( 0, chunkCount ).parallel().forEach( chunk ->
+        {
+            int[] chunkValues = new int[ this.offsets.length ];
+            int[] chunkNewValues = new int[ this.offsets.length ];
+            long[] path = new long[ 1024 ];
+            long end = Math.min( stateCount, ( chunk + 1 ) * CHUNK_SIZE );
+            for ( long first = chunk * CHUNK_SIZE; first < end && lockUp.get() == null; first++ )
+            {
+                // Follow the path until it meets a state known to reach the loop.
+                long tortoise = first;
+                long power = 1;
+                long lambda = 0;
+                int length = 0;
+                long current = first;
+                while ( !isMarked( reaches, current ) )
+                {
+                    if ( length == path.length )
+                    {
+                        path = Arrays.copyOf( path, length * 2 );
+                    }
+                    path[ length++ ] = current;
+
+                    current = next( current, chunkValues, chunkNewValues );
+                    if ( current == tortoise )
+                    {
+                        lockUp.compareAndSet( null, first );
+                        return;
+                    }
+                    if ( ++lambda == power )
+                    {
+                        tortoise = current;
+                        power <<= 1;
+                        lambda = 0;
+                    }
+                }
+
+                for ( int i = 0; i < length; i++ )
+                {
+                    mark( reaches, path[ i ] );
+                }
+            }
+        } );
+
+        List< Simulation.State > counterexample = lockUp.get() == null
+            ? ImmutableList.of()
+            : counterexample( lockUp.get(), values, newValues );
+        return new Result( stateCount, loopLength, counterexample );
+    }
+
+    /**
+     * @return a state within the loop that a state leads into
+     */
+    private long findLoop( long start, int[] values, int[] newValues )
+    {
+        long tortoise = start;
+        long hare = next( start, values, newValues );
+        long power = 1;
+        long lambda = 1;
+        while ( tortoise != hare )
+        {
+            if ( power == lambda )
+            {
+                tortoise = hare;
+                power <<= 1;
+                lambda = 0;
+            }
+            hare = next( hare, values, newValues );
+            lambda++;
+        }
+        return hare;
+    }
+
+    private List< Simulation.State > counterexample( long first, int[] values, int[] newValues )
+    {
+        List< Long > path = new ArrayList<>();
+        Set< Long > seen = new HashSet<>();
+        long state = first;
+        while ( seen.add( state ) )
+        {
+            path.add( state );
+            state = next( state, values, newValues );
+        }
+        path.add( state );
+
+        return path.stream().map( packed -> toState( packed, values ) ).collect( Collectors.toList() );
+    }
+
+    private static boolean isMarked( ByteBuffer bits, long state )
+    {
+        long word = (long) WORDS.getOpaque( bits, (int) ( state >>> 6 ) << 3 );
+        return ( word & ( 1L << state ) ) != 0;
+    }
+
+    private static void mark( ByteBuffer bits, long state )
+    {
+        WORDS.getAndBitwiseOr( bits, (int) ( state >>> 6 ) << 3, 1L << state );
+    }
+
+    private long next( long state, int[] values, int[] newValues )
+    {
+        unpack( state, values );
+        this.stepper.step( values, newValues );
+        return pack( newValues );
+    }
+
+    private long pack( int[] values )
+    {
+        long state = 0;
+        for ( int i = 0; i < this.offsets.length; i++ )
+        {
+            state |= (long) ( values[ i ] & this.outputMasks[ i ] ) << this.offsets[ i ];
+        }
+        return state;
+    }
+
+    private void unpack( long state, int[] values )
+    {
+        for ( int i = 0; i < this.offsets.length; i++ )
+        {
+            values[ i ] = (int) ( state >>> this.offsets[ i ] ) & this.outputMasks[ i ];
+        }
+        this.wiring.apply( values );
+    }
+
+    private Simulation.State toState( long state, int[] values )
+    {
+        unpack( state, values );
+        return this.simulation.state( values );
+    }
+
+    /**
+     * Explores the timing chain of {@link Video}: the counters and the flags
+     * derived from them.
+     */
+    public static void main( String[] args )
+    {
+        Map< String, Supplier< Chip > > builders = Video.chips();
+        List< Chip > chips = Util.build( ImmutableList.of( builders.get( "hcounter" ),
+                                                           builders.get( "vcounter" ),
+                                                           builders.get( "hflags" ),
+                                                           builders.get( "vflags" ) ) );
+        Simulation simulation = Simulation.create( chips, Simulation.Engine.TABLE );
+        StateSpace space = create( simulation );
+
+        long start = System.nanoTime();
+        Result result = space.explore( simulation.zeroState().with( "Clear", true ).next() );
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf( "%d states of %d bits explored in %.1fs; reset loop of %d states%n",
+                           result.stateCount(),
+                           space.bitCount(),
+                           elapsed / 1e9,
+                           result.loopLength() );
+        if ( result.lockUpFree() )
+        {
+            System.out.println( "Every state reaches the reset loop" );
+        }
+        else
+        {
+            System.out.println( "Lock-up, " + result.counterexample().size() + " states to a repeat:" );
+            for ( Simulation.State state : result.counterexample() )
+            {
+                state.dump();
+                System.out.println();
+            }
+        }
+    }
+}
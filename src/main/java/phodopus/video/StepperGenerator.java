@@ -0,0 +1,532 @@
+/* Copyright © 2022 Matthew Wilson
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0
+ * which is available at:
+ * http://www.eclipse.org/legal/epl-2.0
+ * or the GNU General Public License v3.0 or later
+ * which is available at:
+ * https://www.gnu.org/licenses/gpl-3.0.en.html
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-3.0-or-later
+ */
+package phodopus.video;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates a hidden class implementing {@link Simulation.Stepper} for a fixed
+ * netlist.
+ * <p>
+ * The step method is straight-line code: each chip value is loaded once, each
+ * {@link And} becomes {@code (((v & interestMask) ^ setMask) - 1) >>> 31} (1 when
+ * it matches, as the masked value is never negative), the terms are ORed
+ * together, and the wiring is inlined as shifts and masks of the output
+ * locals. There are no branches, so no stack map frames are needed, and the
+ * class file is written by hand to keep the module dependency-free.
+ * <p>
+ * If the step method would be too large for the JIT to compile, each chip's
+ * outputs are moved into a static method of their own.
+ */
+final class StepperGenerator
+{
+    /**
+     * HotSpot will not compile methods with more bytecode than this.
+     */
+    private static final int HUGE_METHOD_LIMIT = 8000;
+
+    private static final int MAX_METHOD_SIZE = 65535;
+
+    private static final String CLASS_NAME = "phodopus/video/GeneratedStepper";
+
+    private static final String STEP_DESCRIPTOR = "([I[I)V";
+
+    private static final String CHIP_DESCRIPTOR = "(I)I";
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final int ICONST_0 = 0x03;
+    private static final int ICONST_1 = 0x04;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC = 0x12;
+    private static final int LDC_W = 0x13;
+    private static final int ILOAD = 0x15;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int ALOAD_2 = 0x2c;
+    private static final int IALOAD = 0x2e;
+    private static final int ISTORE = 0x36;
+    private static final int IASTORE = 0x4f;
+    private static final int ISUB = 0x64;
+    private static final int ISHL = 0x78;
+    private static final int IUSHR = 0x7c;
+    private static final int IAND = 0x7e;
+    private static final int IOR = 0x80;
+    private static final int IXOR = 0x82;
+    private static final int IRETURN = 0xac;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int WIDE = 0xc4;
+
+    private final List< Chip > chips;
+
+    private final Simulation.Wiring wiring;
+
+    private final ConstantPool pool = new ConstantPool();
+
+    private final List< Method > methods = new ArrayList<>();
+
+    private StepperGenerator( List< Chip > chips, Simulation.Wiring wiring )
+    {
+        this.chips = chips;
+        this.wiring = wiring;
+    }
+
+    static Simulation.Stepper generate( List< Chip > chips, Simulation.Wiring wiring )
+    {
+        byte[] bytes = new StepperGenerator( chips, wiring ).toByteArray();
+        try
+        {
+            Class< ? > stepperClass = MethodHandles.lookup().defineHiddenClass( bytes, true ).lookupClass();
+            return (Simulation.Stepper) stepperClass.getDeclaredConstructor().newInstance();
+        }
+        catch ( ReflectiveOperationException e )
+        {
+            throw new IllegalStateException( "Cannot define generated stepper", e );
+        }
+    }
+
+    private byte[] toByteArray()
+    {
+        this.methods.add( constructor() );
+
+        Code step = step( false );
+        if ( step.size() > HUGE_METHOD_LIMIT )
+        {
+            step = step( true );
+        }
+        this.methods.add( new Method( ACC_PUBLIC, "step", STEP_DESCRIPTOR, step ) );
+
+        int thisClass = this.pool.classInfo( CLASS_NAME );
+        int superClass = this.pool.classInfo( "java/lang/Object" );
+        int stepperInterface = this.pool.classInfo( "phodopus/video/Simulation$Stepper" );
+        for ( Method method : this.methods )
+        {
+            method.resolve( this.pool );
+        }
+
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream( bytes );
+            out.writeInt( 0xCAFEBABE );
+            out.writeShort( 0 );
+            out.writeShort( 61 );
+            this.pool.write( out );
+            out.writeShort( ACC_FINAL | ACC_SUPER );
+            out.writeShort( thisClass );
+            out.writeShort( superClass );
+            out.writeShort( 1 );
+            out.writeShort( stepperInterface );
+
+            // No fields.
+            out.writeShort( 0 );
+
+            out.writeShort( this.methods.size() );
+            for ( Method method : this.methods )
+            {
+                method.write( out, this.pool );
+            }
+
+            // No attributes.
+            out.writeShort( 0 );
+            out.flush();
+            return bytes.toByteArray();
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    private Method constructor()
+    {
+        Code code = new Code( 1, 1 );
+        code.op( ALOAD_0 );
+        code.op( INVOKESPECIAL );
+        code.u2( this.pool.methodRef( "java/lang/Object", "<init>", "()V" ) );
+        code.op( RETURN );
+        return new Method( ACC_PUBLIC, "<init>", "()V", code );
+    }
+
+    /**
+     * @param split
+     *            whether to put each chip's outputs in a method of its own
+     * @return code for {@code step(int[] values, int[] newValues)}
+     */
+    private Code step( boolean split )
+    {
+        // Locals: this, values, newValues, then each chip value, then each chip output.
+        int chipCount = this.chips.size();
+        int firstValue = 3;
+        int firstOutput = firstValue + chipCount;
+        Code code = new Code( 8, firstOutput + chipCount );
+
+        for ( int i = 0; i < chipCount; i++ )
+        {
+            code.op( ALOAD_1 );
+            code.pushInt( i );
+            code.op( IALOAD );
+            code.local( ISTORE, firstValue + i );
+        }
+
+        for ( int i = 0; i < chipCount; i++ )
+        {
+            if ( split )
+            {
+                String name = "chip" + i;
+                Code chipCode = new Code( 6, 1 );
+                outputs( chipCode, this.chips.get( i ), 0 );
+                chipCode.op( IRETURN );
+                this.methods.add( new Method( ACC_PRIVATE | ACC_STATIC, name, CHIP_DESCRIPTOR, chipCode ) );
+
+                code.local( ILOAD, firstValue + i );
+                code.op( INVOKESTATIC );
+                code.u2( this.pool.methodRef( CLASS_NAME, name, CHIP_DESCRIPTOR ) );
+            }
+            else
+            {
+                outputs( code, this.chips.get( i ), firstValue + i );
+            }
+            code.local( ISTORE, firstOutput + i );
+        }
+
+        // Wire up inputs: each new value is its outputs ORed with every driven input.
+        for ( int i = 0; i < chipCount; i++ )
+        {
+            code.op( ALOAD_2 );
+            code.pushInt( i );
+            code.local( ILOAD, firstOutput + i );
+            for ( int route = 0; route < this.wiring.size(); route++ )
+            {
+                if ( this.wiring.destinationChip( route ) != i )
+                {
+                    continue;
+                }
+
+                code.local( ILOAD, firstOutput + this.wiring.sourceChip( route ) );
+                code.shift( IUSHR, this.wiring.sourceBit( route ) );
+                code.op( ICONST_1 );
+                code.op( IAND );
+                code.shift( ISHL, Integer.numberOfTrailingZeros( this.wiring.destinationMask( route ) ) );
+                code.op( IOR );
+            }
+            code.op( IASTORE );
+        }
+
+        code.op( RETURN );
+        return code;
+    }
+
+    /**
+     * Emits code that leaves the packed outputs of a chip on the stack.
+     */
+    private void outputs( Code code, Chip chip, int valueLocal )
+    {
+        List< Expression > outputs = chip.outputs();
+        if ( outputs.isEmpty() )
+        {
+            code.op( ICONST_0 );
+            return;
+        }
+
+        for ( int j = 0; j < outputs.size(); j++ )
+        {
+            expression( code, outputs.get( j ), valueLocal );
+            code.shift( ISHL, j );
+            if ( j > 0 )
+            {
+                code.op( IOR );
+            }
+        }
+    }
+
+    /**
+     * Emits code that leaves 1 on the stack if the expression is true, else 0.
+     */
+    private void expression( Code code, Expression expression, int valueLocal )
+    {
+        List< And > ands = expression.ands();
+        if ( ands.isEmpty() )
+        {
+            code.op( ICONST_0 );
+            return;
+        }
+        if ( ands.stream().anyMatch( and -> and.interestMask() == 0 ) )
+        {
+            code.op( ICONST_1 );
+            return;
+        }
+
+        for ( int k = 0; k < ands.size(); k++ )
+        {
+            And and = ands.get( k );
+            code.local( ILOAD, valueLocal );
+            code.pushInt( and.interestMask() );
+            code.op( IAND );
+            if ( and.setMask() != 0 )
+            {
+                code.pushInt( and.setMask() );
+                code.op( IXOR );
+            }
+            code.op( ICONST_1 );
+            code.op( ISUB );
+            code.shift( IUSHR, 31 );
+            if ( k > 0 )
+            {
+                code.op( IOR );
+            }
+        }
+    }
+
+    private final class Code
+    {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        private final int maxStack;
+
+        private final int maxLocals;
+
+        Code( int maxStack, int maxLocals )
+        {
+            this.maxStack = maxStack;
+            this.maxLocals = maxLocals;
+        }
+
+        int size()
+        {
+            return this.bytes.size();
+        }
+
+        void op( int opcode )
+        {
+            this.bytes.write( opcode );
+        }
+
+        void u2( int value )
+        {
+            this.bytes.write( value >>> 8 );
+            this.bytes.write( value );
+        }
+
+        void local( int opcode, int index )
+        {
+            if ( index > 255 )
+            {
+                op( WIDE );
+                op( opcode );
+                u2( index );
+            }
+            else
+            {
+                op( opcode );
+                op( index );
+            }
+        }
+
+        void shift( int opcode, int distance )
+        {
+            if ( distance != 0 )
+            {
+                pushInt( distance );
+                op( opcode );
+            }
+        }
+
+        void pushInt( int value )
+        {
+            if ( value >= -1 && value <= 5 )
+            {
+                op( ICONST_0 + value );
+            }
+            else if ( value == (byte) value )
+            {
+                op( BIPUSH );
+                op( value & 0xff );
+            }
+            else if ( value == (short) value )
+            {
+                op( SIPUSH );
+                u2( value & 0xffff );
+            }
+            else
+            {
+                int index = StepperGenerator.this.pool.integer( value );
+                if ( index > 255 )
+                {
+                    op( LDC_W );
+                    u2( index );
+                }
+                else
+                {
+                    op( LDC );
+                    op( index );
+                }
+            }
+        }
+
+        void write( DataOutputStream out, ConstantPool pool ) throws IOException
+        {
+            byte[] code = this.bytes.toByteArray();
+            if ( code.length > MAX_METHOD_SIZE )
+            {
+                throw new IllegalArgumentException( "Too many product terms to generate a stepper" );
+            }
+
+            out.writeShort( pool.utf8( "Code" ) );
+            out.writeInt( 12 + code.length );
+            out.writeShort( this.maxStack );
+            out.writeShort( this.maxLocals );
+            out.writeInt( code.length );
+            out.write( code );
+
+            // No exception table, no attributes.
+            out.writeShort( 0 );
+            out.writeShort( 0 );
+        }
+    }
+
+    private static final class Method
+    {
+        private final int access;
+        private final String name;
+        private final String descriptor;
+        private final Code code;
+
+        Method( int access, String name, String descriptor, Code code )
+        {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.code = code;
+        }
+
+        /**
+         * Adds everything that {@link #write} needs to the pool, which has to be
+         * complete before anything is written.
+         */
+        void resolve( ConstantPool pool )
+        {
+            pool.utf8( this.name );
+            pool.utf8( this.descriptor );
+            pool.utf8( "Code" );
+        }
+
+        void write( DataOutputStream out, ConstantPool pool ) throws IOException
+        {
+            out.writeShort( this.access );
+            out.writeShort( pool.utf8( this.name ) );
+            out.writeShort( pool.utf8( this.descriptor ) );
+            out.writeShort( 1 );
+            this.code.write( out, pool );
+        }
+    }
+
+    private static final class ConstantPool
+    {
+        private static final int UTF8 = 1;
+        private static final int INTEGER = 3;
+        private static final int CLASS = 7;
+        private static final int METHOD_REF = 10;
+        private static final int NAME_AND_TYPE = 12;
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        private final DataOutputStream out = new DataOutputStream( this.bytes );
+
+        private final Map< String, Integer > indices = new HashMap<>();
+
+        private int next = 1;
+
+        int utf8( String value )
+        {
+            return entry( "u" + value, () -> this.out.writeUTF( value ), UTF8 );
+        }
+
+        int integer( int value )
+        {
+            return entry( "i" + value, () -> this.out.writeInt( value ), INTEGER );
+        }
+
+        int classInfo( String name )
+        {
+            int nameIndex = utf8( name );
+            return entry( "c" + name, () -> this.out.writeShort( nameIndex ), CLASS );
+        }
+
+        int methodRef( String owner, String name, String descriptor )
+        {
+            int ownerIndex = classInfo( owner );
+            int nameIndex = utf8( name );
+            int descriptorIndex = utf8( descriptor );
+            int nameAndType = entry( "n" + name + descriptor, () ->
+            {
+                this.out.writeShort( nameIndex );
+                this.out.writeShort( descriptorIndex );
+            }, NAME_AND_TYPE );
+            return entry( "m" + owner + "." + name + descriptor, () ->
+            {
+                this.out.writeShort( ownerIndex );
+                this.out.writeShort( nameAndType );
+            }, METHOD_REF );
+        }
+
+        private int entry( String key, Body body, int tag )
+        {
+            Integer index = this.indices.get( key );
+            if ( index != null )
+            {
+                return index;
+            }
+
+            try
+            {
+                this.out.writeByte( tag );
+                body.write();
+            }
+            catch ( IOException e )
+            {
+                throw new UncheckedIOException( e );
+            }
+            this.indices.put( key, this.next );
+            return this.next++;
+        }
+
+        void write( DataOutputStream output ) throws IOException
+        {
+            this.out.flush();
+            output.writeShort( this.next );
+            this.bytes.writeTo( output );
+        }
+
+        @FunctionalInterface
+        private interface Body
+        {
+            void write() throws IOException;
+        }
+    }
+}
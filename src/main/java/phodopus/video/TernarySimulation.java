@@ -0,0 +1,342 @@
+/* Copyright © 2022 Matthew Wilson
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0
+ * which is available at:
+ * http://www.eclipse.org/legal/epl-2.0
+ * or the GNU General Public License v3.0 or later
+ * which is available at:
+ * https://www.gnu.org/licenses/gpl-3.0.en.html
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-3.0-or-later
+ */
+package phodopus.video;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Three-valued simulation, where each pin is 0, 1 or unknown (X), for finding
+ * how long after reset each register holds a known value, whatever it powered
+ * up as.
+ * <p>
+ * Each chip value is held as two planes: which bits are known, and the values
+ * of those that are. An {@link And} is 0 if any known bit it tests is wrong,
+ * else 1 if every bit it tests is known, else X; an {@link Expression} is 1 if
+ * any term is 1, else 0 if every term is 0, else X. This is conservative: an
+ * output may be X where every actual value of the unknown bits would agree.
+ * <p>
+ * As in {@link Simulation}, inputs that no chip drives are 0 after each step.
+ * Attached memories are not modelled.
+ */
+public final class TernarySimulation
+{
+    private final Simulation simulation;
+
+    /**
+     * For each chip, for each output, the interest and set masks of its terms.
+     */
+    private final int[][][] interestMasks;
+    private final int[][][] setMasks;
+
+    /**
+     * For each chip, the bits of inputs that no chip drives.
+     */
+    private final int[] undriven;
+
+    private TernarySimulation( Simulation simulation, int[][][] interestMasks, int[][][] setMasks, int[] undriven )
+    {
+        this.simulation = simulation;
+        this.interestMasks = interestMasks;
+        this.setMasks = setMasks;
+        this.undriven = undriven;
+    }
+
+    public static TernarySimulation create( Simulation simulation )
+    {
+        List< Chip > chips = simulation.chips();
+        int[][][] interestMasks = new int[ chips.size() ][][];
+        int[][][] setMasks = new int[ chips.size() ][][];
+        int[] undriven = new int[ chips.size() ];
+        for ( int i = 0; i < chips.size(); i++ )
+        {
+            Chip chip = chips.get( i );
+            interestMasks[ i ] = chip.outputs()
+                                     .stream()
+                                     .map( output -> output.ands().stream().mapToInt( And::interestMask ).toArray() )
+                                     .toArray( int[][]::new );
+            setMasks[ i ] = chip.outputs()
+                                .stream()
+                                .map( output -> output.ands().stream().mapToInt( And::setMask ).toArray() )
+                                .toArray( int[][]::new );
+
+            int outputMask = ( 1 << chip.outputs().size() ) - 1;
+            undriven[ i ] = ( ( 1 << ( chip.outputs().size() + chip.inputs().size() ) ) - 1 ) & ~outputMask;
+        }
+
+        Simulation.Wiring wiring = simulation.wiring();
+        for ( int route = 0; route < wiring.size(); route++ )
+        {
+            undriven[ wiring.destinationChip( route ) ] &= ~wiring.destinationMask( route );
+        }
+
+        return new TernarySimulation( simulation, interestMasks, setMasks, undriven );
+    }
+
+    public Simulation simulation()
+    {
+        return this.simulation;
+    }
+
+    /**
+     * @return a state where every pin is unknown, as at power-up
+     */
+    public State unknownState()
+    {
+        int size = this.simulation.chips().size();
+        return new State( new int[ size ], new int[ size ] );
+    }
+
+    /**
+     * Holds a reset input for one cycle from power-up, then runs until every
+     * output has been known for good, or the limit is reached.
+     *
+     * @param reset
+     *            the reset input, such as {@code "Clear"}
+     * @param limit
+     *            the most cycles to run after reset
+     * @return the settling times
+     */
+    public Settling settle( String reset, long limit )
+    {
+        List< Chip > chips = this.simulation.chips();
+
+        // The last cycle each output was unknown, or -1 if it never was.
+        long[][] lastUnknown = new long[ chips.size() ][];
+        for ( int i = 0; i < chips.size(); i++ )
+        {
+            lastUnknown[ i ] = new long[ chips.get( i ).outputs().size() ];
+            Arrays.fill( lastUnknown[ i ], -1 );
+        }
+
+        State state = unknownState().with( reset, true ).next();
+        for ( long cycle = 0; cycle < limit; cycle++ )
+        {
+            for ( int i = 0; i < chips.size(); i++ )
+            {
+                int unknown = ~state.known[ i ] & ( ( 1 << lastUnknown[ i ].length ) - 1 );
+                while ( unknown != 0 )
+                {
+                    lastUnknown[ i ][ Integer.numberOfTrailingZeros( unknown ) ] = cycle;
+                    unknown &= unknown - 1;
+                }
+            }
+            state = state.next();
+        }
+
+        Map< String, Long > knownAfter = new LinkedHashMap<>();
+        List< String > unknown = new ArrayList<>();
+        for ( int i = 0; i < chips.size(); i++ )
+        {
+            List< Expression > outputs = chips.get( i ).outputs();
+            for ( int j = 0; j < outputs.size(); j++ )
+            {
+                if ( lastUnknown[ i ][ j ] == limit - 1 && !state.isKnown( outputs.get( j ).name() ) )
+                {
+                    unknown.add( outputs.get( j ).name() );
+                }
+                else
+                {
+                    knownAfter.put( outputs.get( j ).name(), lastUnknown[ i ][ j ] + 1 );
+                }
+            }
+        }
+        return new Settling( ImmutableMap.copyOf( knownAfter ), ImmutableList.copyOf( unknown ) );
+    }
+
+    /**
+     * The outcome of {@link TernarySimulation#settle(String, long)}.
+     *
+     * @param knownAfter
+     *            for each output known by the limit, in chip order, the
+     *            number of cycles after reset from which it stays known
+     * @param unknown
+     *            the outputs still unknown at the limit
+     */
+    public record Settling( Map< String, Long > knownAfter, List< String > unknown )
+    {
+    }
+
+    public final class State
+    {
+        private final int[] known;
+
+        private final int[] values;
+
+        private State( int[] known, int[] values )
+        {
+            this.known = known;
+            this.values = values;
+        }
+
+        public State with( String input, boolean flag )
+        {
+            Simulation.Pin pin = TernarySimulation.this.simulation.pin( input );
+            int[] newKnown = this.known.clone();
+            int[] newValues = this.values.clone();
+            pin.set( newKnown, true );
+            pin.set( newValues, flag );
+            return new State( newKnown, newValues );
+        }
+
+        public State next()
+        {
+            int[][][] interestMasks = TernarySimulation.this.interestMasks;
+            int[][][] setMasks = TernarySimulation.this.setMasks;
+            int[] newKnown = new int[ this.known.length ];
+            int[] newValues = new int[ this.values.length ];
+
+            for ( int i = 0; i < interestMasks.length; i++ )
+            {
+                int known = this.known[ i ];
+                int value = this.values[ i ];
+                for ( int j = 0; j < interestMasks[ i ].length; j++ )
+                {
+                    int[] interests = interestMasks[ i ][ j ];
+                    int[] sets = setMasks[ i ][ j ];
+                    boolean unknown = false;
+                    boolean one = false;
+                    for ( int k = 0; k < interests.length && !one; k++ )
+                    {
+                        int interest = interests[ k ];
+                        if ( ( ( value ^ sets[ k ] ) & interest & known ) != 0 )
+                        {
+                            // A known bit is wrong, so the term is 0.
+                            continue;
+                        }
+                        if ( ( interest & ~known ) == 0 )
+                        {
+                            one = true;
+                        }
+                        else
+                        {
+                            unknown = true;
+                        }
+                    }
+
+                    if ( one )
+                    {
+                        newKnown[ i ] |= 1 << j;
+                        newValues[ i ] |= 1 << j;
+                    }
+                    else if ( !unknown )
+                    {
+                        newKnown[ i ] |= 1 << j;
+                    }
+                }
+
+                // Undriven inputs are known zeros.
+                newKnown[ i ] |= TernarySimulation.this.undriven[ i ];
+            }
+
+            // Wire up both planes for next round.
+            Simulation.Wiring wiring = TernarySimulation.this.simulation.wiring();
+            wiring.apply( newKnown );
+            wiring.apply( newValues );
+
+            return new State( newKnown, newValues );
+        }
+
+        public boolean isKnown( String pin )
+        {
+            return TernarySimulation.this.simulation.pin( pin ).get( this.known );
+        }
+
+        /**
+         * @return whether every pin is known
+         */
+        public boolean isKnown()
+        {
+            List< Chip > chips = TernarySimulation.this.simulation.chips();
+            for ( int i = 0; i < chips.size(); i++ )
+            {
+                Chip chip = chips.get( i );
+                int mask = ( 1 << ( chip.outputs().size() + chip.inputs().size() ) ) - 1;
+                if ( ( this.known[ i ] & mask ) != mask )
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @throws IllegalStateException
+         *             if the pin is unknown
+         */
+        public boolean flag( String pin )
+        {
+            Preconditions.checkState( isKnown( pin ), "Unknown: %s", pin );
+            return TernarySimulation.this.simulation.pin( pin ).get( this.values );
+        }
+
+        /**
+         * @return the equivalent two-valued state
+         * @throws IllegalStateException
+         *             if any pin is unknown
+         */
+        public Simulation.State toState()
+        {
+            Preconditions.checkState( isKnown(), "Some pins are unknown" );
+            return TernarySimulation.this.simulation.state( this.values );
+        }
+
+        /**
+         * @return each chip's pins, with X for unknown ones
+         */
+        @Override
+        public String toString()
+        {
+            List< Chip > chips = TernarySimulation.this.simulation.chips();
+            StringBuilder text = new StringBuilder();
+            for ( int i = 0; i < chips.size(); i++ )
+            {
+                Chip chip = chips.get( i );
+                text.append( chip.name() ).append( ' ' );
+                for ( int bit = chip.outputs().size() + chip.inputs().size() - 1; bit >= 0; bit-- )
+                {
+                    text.append( ( this.known[ i ] & ( 1 << bit ) ) == 0
+                        ? 'X'
+                        : ( this.values[ i ] & ( 1 << bit ) ) == 0 ? '0' : '1' );
+                }
+                text.append( '\n' );
+            }
+            return text.toString();
+        }
+    }
+
+    /**
+     * Resets the {@link Video} chips from power-up, and reports how many cycles
+     * each register takes to become known.
+     */
+    public static void main( String[] args )
+    {
+        List< Chip > chips = Util.build( ImmutableList.copyOf( Video.chips().values() ) );
+        TernarySimulation simulation = create( Simulation.create( chips ) );
+
+        // Two frames.
+        Settling settling = simulation.settle( "Clear", 2 * 525 * 400 );
+        settling.knownAfter().forEach( ( pin, cycles ) -> System.out.printf( "%-8s %d%n", pin, cycles ) );
+        for ( String pin : settling.unknown() )
+        {
+            System.out.printf( "%-8s unknown%n", pin );
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/* Copyright © 2022 Matthew Wilson
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0
+ * which is available at:
+ * http://www.eclipse.org/legal/epl-2.0
+ * or the GNU General Public License v3.0 or later
+ * which is available at:
+ * https://www.gnu.org/licenses/gpl-3.0.en.html
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-3.0-or-later
+ */
+package phodopus.video;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Somewhere to record the states of a {@link Simulation}, one call of
+ * {@link Simulation.State#trace(TraceSink)} or
+ * {@link Simulation.MutableState#trace(TraceSink)} per cycle.
+ * <p>
+ * Output goes through a fixed little-endian buffer to a channel, so memory use
+ * does not grow with the length of the run.
+ */
+public abstract class TraceSink implements Closeable
+{
+    static final int BUFFER_SIZE = 1 << 16;
+
+    private final WritableByteChannel channel;
+
+    final ByteBuffer buffer = ByteBuffer.allocate( BUFFER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+
+    /**
+     * @param channel
+     *            the channel to write to, closed when the sink is
+     */
+    TraceSink( WritableByteChannel channel )
+    {
+        this.channel = channel;
+    }
+
+    /**
+     * Records one cycle.
+     *
+     * @param values
+     *            the packed chip values, which must not be kept
+     */
+    abstract void record( int[] values );
+
+    /**
+     * Makes room for at least {@code bytes} more in the buffer, which must not
+     * be more than {@link #BUFFER_SIZE}.
+     */
+    final void ensure( int bytes )
+    {
+        if ( this.buffer.remaining() < bytes )
+        {
+            flush();
+        }
+    }
+
+    /**
+     * Writes out everything recorded so far.
+     */
+    public final void flush()
+    {
+        this.buffer.flip();
+        try
+        {
+            while ( this.buffer.hasRemaining() )
+            {
+                this.channel.write( this.buffer );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+        this.buffer.clear();
+    }
+
+    @Override
+    public final void close() throws IOException
+    {
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            this.channel.close();
+        }
+    }
+}
@@ -0,0 +1,308 @@
+/* Copyright © 2022 Matthew Wilson
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0
+ * which is available at:
+ * http://www.eclipse.org/legal/epl-2.0
+ * or the GNU General Public License v3.0 or later
+ * which is available at:
+ * https://www.gnu.org/licenses/gpl-3.0.en.html
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-3.0-or-later
+ */
+package phodopus.video;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Records selected signals of a {@link Simulation} on each cycle, through a
+ * buffered channel, without formatting or allocating per cycle. Pins are looked
+ * up once, when the trace is built.
+ * <p>
+ * Binary traces are little-endian: a header followed by one fixed-width record
+ * per cycle. The header is the magic number {@code "PVTR"}, the version and the
+ * field count as ints, then each field's name (a short length and UTF-8 bytes)
+ * and its width in bits (a byte). Each record holds each field in one, two or
+ * four bytes according to its width. Literals are left out.
+ * <p>
+ * Text traces are a line per cycle, rendered into one preallocated line, which
+ * has the same length every time: numbers are zero-padded to the digits their
+ * width needs, and flags are the pin name with a space before it when set, or a
+ * {@code /} when clear.
+ */
+public final class TraceWriter extends TraceSink
+{
+    private static final int MAGIC = 0x50565452; // "PVTR"
+
+    private static final int VERSION = 1;
+
+    private static final byte[] DIGITS = "0123456789abcdef".getBytes( StandardCharsets.US_ASCII );
+
+    private enum Kind
+    {
+        FLAG,
+        DECIMAL,
+        HEX
+    }
+
+    private final Kind[] kinds;
+
+    private final int[] chips;
+
+    private final int[] shifts;
+
+    private final int[] masks;
+
+    /**
+     * Null for binary traces.
+     */
+    private final byte[] line;
+
+    /**
+     * For text traces, where each field's text starts within the line.
+     */
+    private final int[] starts;
+
+    /**
+     * For text traces, where each field's text ends within the line.
+     */
+    private final int[] ends;
+
+    private TraceWriter( WritableByteChannel channel, List< Field > fields, byte[] line, int[] starts, int[] ends )
+    {
+        super( channel );
+        this.kinds = fields.stream().map( Field::kind ).toArray( Kind[]::new );
+        this.chips = fields.stream().mapToInt( field -> field.location().chip() ).toArray();
+        this.shifts = fields.stream().mapToInt( field -> field.location().bit() ).toArray();
+        this.masks = fields.stream().mapToInt( field -> ( 1 << field.width() ) - 1 ).toArray();
+        this.line = line;
+        this.starts = starts;
+        this.ends = ends;
+    }
+
+    public static Builder builder( Simulation simulation )
+    {
+        return new Builder( simulation );
+    }
+
+    private record Field( Kind kind, String pin, Simulation.Location location, int width )
+    {
+        /**
+         * @return the digits a number field needs for its largest value
+         */
+        int digits()
+        {
+            return this.kind == Kind.DECIMAL
+                ? Integer.toString( ( 1 << this.width ) - 1 ).length()
+                : ( this.width + 3 ) / 4;
+        }
+    }
+
+    public static final class Builder
+    {
+        private final Simulation simulation;
+
+        private final List< Field > fields = new ArrayList<>();
+
+        /**
+         * Text, in order, with null where each field goes.
+         */
+        private final List< String > parts = new ArrayList<>();
+
+        private Builder( Simulation simulation )
+        {
+            this.simulation = simulation;
+        }
+
+        public Builder flag( String pin )
+        {
+            return add( Kind.FLAG, pin, 1 );
+        }
+
+        /**
+         * Adds a number formed of {@code count} pins from {@code pin}, as
+         * {@link Simulation.State#number(String, int)}, shown in decimal.
+         */
+        public Builder decimal( String pin, int count )
+        {
+            return add( Kind.DECIMAL, pin, count );
+        }
+
+        /**
+         * Adds a number formed of {@code count} pins from {@code pin}, as
+         * {@link Simulation.State#number(String, int)}, shown in hex.
+         */
+        public Builder hex( String pin, int count )
+        {
+            return add( Kind.HEX, pin, count );
+        }
+
+        /**
+         * Adds fixed text to text traces, such as a separator.
+         */
+        public Builder literal( String text )
+        {
+            this.parts.add( text );
+            return this;
+        }
+
+        private Builder add( Kind kind, String pin, int width )
+        {
+            Preconditions.checkArgument( width > 0 && width < Integer.SIZE, "Bad width: %s", width );
+            this.fields.add( new Field( kind, pin, this.simulation.locate( pin ), width ) );
+            this.parts.add( null );
+            return this;
+        }
+
+        public TraceWriter binary( Path file ) throws IOException
+        {
+            return binary( FileChannel.open( file,
+                                             StandardOpenOption.CREATE,
+                                             StandardOpenOption.WRITE,
+                                             StandardOpenOption.TRUNCATE_EXISTING ) );
+        }
+
+        /**
+         * @param channel
+         *            the channel to write to, closed when the trace is
+         */
+        public TraceWriter binary( WritableByteChannel channel )
+        {
+            TraceWriter trace = new TraceWriter( channel, this.fields, null, null, null );
+            trace.buffer.putInt( MAGIC ).putInt( VERSION ).putInt( this.fields.size() );
+            for ( Field field : this.fields )
+            {
+                byte[] name = field.pin().getBytes( StandardCharsets.UTF_8 );
+                trace.buffer.putShort( (short) name.length ).put( name ).put( (byte) field.width() );
+            }
+            return trace;
+        }
+
+        public TraceWriter text( Path file ) throws IOException
+        {
+            return text( FileChannel.open( file,
+                                           StandardOpenOption.CREATE,
+                                           StandardOpenOption.WRITE,
+                                           StandardOpenOption.TRUNCATE_EXISTING ) );
+        }
+
+        /**
+         * @param channel
+         *            the channel to write to, closed when the trace is
+         */
+        public TraceWriter text( WritableByteChannel channel )
+        {
+            // Lay the line out once; only the field text changes per cycle.
+            StringBuilder template = new StringBuilder();
+            int[] starts = new int[ this.fields.size() ];
+            int[] ends = new int[ this.fields.size() ];
+            int field = 0;
+            for ( String part : this.parts )
+            {
+                if ( part != null )
+                {
+                    template.append( part );
+                    continue;
+                }
+
+                Field f = this.fields.get( field );
+                starts[ field ] = template.length();
+                template.append( f.kind() == Kind.FLAG ? "/" + f.pin() : "0".repeat( f.digits() ) );
+                ends[ field++ ] = template.length();
+            }
+            template.append( '\n' );
+
+            byte[] line = template.toString().getBytes( StandardCharsets.UTF_8 );
+            Preconditions.checkArgument( line.length <= BUFFER_SIZE, "Line too long" );
+            return new TraceWriter( channel, this.fields, line, starts, ends );
+        }
+    }
+
+    @Override
+    void record( int[] values )
+    {
+        if ( this.line == null )
+        {
+            recordBinary( values );
+        }
+        else
+        {
+            recordText( values );
+        }
+    }
+
+    private void recordBinary( int[] values )
+    {
+        ensure( this.kinds.length * Integer.BYTES );
+        for ( int i = 0; i < this.kinds.length; i++ )
+        {
+            int mask = this.masks[ i ];
+            int value = ( values[ this.chips[ i ] ] >>> this.shifts[ i ] ) & mask;
+            if ( mask <= 0xFF )
+            {
+                this.buffer.put( (byte) value );
+            }
+            else if ( mask <= 0xFFFF )
+            {
+                this.buffer.putShort( (short) value );
+            }
+            else
+            {
+                this.buffer.putInt( value );
+            }
+        }
+    }
+
+    private void recordText( int[] values )
+    {
+        byte[] line = this.line;
+        for ( int i = 0; i < this.kinds.length; i++ )
+        {
+            int value = ( values[ this.chips[ i ] ] >>> this.shifts[ i ] ) & this.masks[ i ];
+            int start = this.starts[ i ];
+            switch ( this.kinds[ i ] )
+            {
+                // The marker comes before the pin name.
+                case FLAG -> line[ start ] = value != 0 ? (byte) ' ' : (byte) '/';
+                case DECIMAL ->
+                {
+                    for ( int p = this.ends[ i ] - 1; p >= start; p-- )
+                    {
+                        line[ p ] = DIGITS[ value % 10 ];
+                        value /= 10;
+                    }
+                }
+                case HEX ->
+                {
+                    for ( int p = this.ends[ i ] - 1; p >= start; p-- )
+                    {
+                        line[ p ] = DIGITS[ value & 15 ];
+                        value >>>= 4;
+                    }
+                }
+            }
+        }
+
+        ensure( line.length );
+        this.buffer.put( line );
+    }
+
+    /**
+     * Writes an empty line to a text trace, such as between frames.
+     */
+    public void newLine()
+    {
+        Preconditions.checkState( this.line != null, "Not a text trace" );
+        ensure( 1 );
+        this.buffer.put( (byte) '\n' );
+    }
+}
@@ -12,19 +12,18 @@
  */
 package phodopus.video;
 
+import java.nio.LongBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.OptionalInt;
 import java.util.function.IntPredicate;
 import java.util.function.IntUnaryOperator;
-import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import com.google.common.base.Strings;
 
-import phodopus.video.And.BitState;
-
 /**
  * Table of 'n' input bits giving one result bit for each combination.
  *
@@ -39,6 +38,11 @@ import phodopus.video.And.BitState;
  */
 public record TruthTable( String name, BitSet table, int bitCount )
 {
+    /**
+     * Number of table words filled by each task when filling in parallel.
+     */
+    private static final int WORDS_PER_TASK = 256;
+
     /**
      * Creates a table based on a number of inputs behaving as an integer.
      *
@@ -52,12 +56,8 @@ public record TruthTable( String name, BitSet table, int bitCount )
      */
     public static TruthTable create( String name, int bitCount, IntPredicate bitTester )
     {
-        BitSet table = new BitSet( 1 << bitCount );
-        for ( int i = 0; i < 1 << bitCount; i++ )
-        {
-            table.set( i, bitTester.test( i ) );
-        }
-        return new TruthTable( name, table, bitCount );
+        long[] words = fill( bitCount, 1, i -> bitTester.test( i ) ? 1 : 0, false )[ 0 ];
+        return new TruthTable( name, BitSet.valueOf( words ), bitCount );
     }
 
     /**
@@ -77,13 +77,8 @@ public record TruthTable( String name, BitSet table, int bitCount )
      */
     public static TruthTable create( String name, int bitCount, IntUnaryOperator operator, int bitOfInterest )
     {
-        int mask = 1 << bitOfInterest;
-        BitSet table = new BitSet( 1 << bitCount );
-        for ( int i = 0; i < 1 << bitCount; i++ )
-        {
-            table.set( i, ( operator.applyAsInt( i ) & mask ) != 0 );
-        }
-        return new TruthTable( name, table, bitCount );
+        long[] words = fill( bitCount, 1, i -> operator.applyAsInt( i ) >>> bitOfInterest, false )[ 0 ];
+        return new TruthTable( name, BitSet.valueOf( words ), bitCount );
     }
 
     /**
@@ -102,65 +97,175 @@ public record TruthTable( String name, BitSet table, int bitCount )
     public static List< TruthTable > createMany( List< String > inputs,
                                                  List< String > outputs,
                                                  IntUnaryOperator operator )
+    {
+        return createMany( inputs, outputs, operator, false );
+    }
+
+    /**
+     * Creates a table based on a number of inputs behaving as an integer, giving an
+     * output as an integer, and sampling all bits from that output. This is
+     * useful for things like counters.
+     * <p>
+     * When filling in parallel, the operator is called from several threads at
+     * once, so it must be free of side effects.
+     *
+     * @param inputs
+     *            unique inputs, forming bits [outputs.size(), outputs.size()+inputs.size()-1]
+     * @param outputs
+     *            outputs, forming bits 0..[outputs.size()-1]
+     * @param operator
+     *            operator that will be called once for each input value
+     * @param parallel
+     *            whether to split the inputs across the common fork-join pool
+     * @return tables
+     */
+    public static List< TruthTable > createMany( List< String > inputs,
+                                                 List< String > outputs,
+                                                 IntUnaryOperator operator,
+                                                 boolean parallel )
     {
         int inputBitCount = outputs.size() + inputs.size();
+        long[][] words = fill( inputBitCount, outputs.size(), operator, parallel );
         return IntStream.range( 0, outputs.size() )
-                        .mapToObj( bitOfInterest -> TruthTable.create( outputs.get( bitOfInterest ),
-                                                                       inputBitCount,
-                                                                       operator,
-                                                                       bitOfInterest ) )
+                        .mapToObj( bitOfInterest -> new TruthTable( outputs.get( bitOfInterest ),
+                                                                    BitSet.valueOf( words[ bitOfInterest ] ),
+                                                                    inputBitCount ) )
                         .toList();
     }
 
     /**
-     * Optimises the table into an expression formed of an OR of ANDs.
+     * Calls the operator once for each input and scatters the low bits of each
+     * result into the words of the matching table.
      *
-     * @return an expression
+     * @return words for each output bit
      */
-    public Expression optimise()
+    private static long[][] fill( int bitCount, int outputCount, IntUnaryOperator operator, boolean parallel )
     {
-        List< And > results = new ArrayList<>();
+        int wordCount = ( ( 1 << bitCount ) + 63 ) >>> 6;
+        long[][] words = new long[ outputCount ][ wordCount ];
+        LongBuffer[] buffers = new LongBuffer[ outputCount ];
+        for ( int j = 0; j < outputCount; j++ )
+        {
+            buffers[ j ] = LongBuffer.wrap( words[ j ] );
+        }
+        fill( bitCount, operator, parallel, buffers );
+        return words;
+    }
 
-        BitSet todo = (BitSet) this.table.clone();
+    /**
+     * Calls the operator once for each input and scatters the low bits of each
+     * result into the words of the matching buffer, writing each by absolute
+     * index.
+     *
+     * @param words
+     *            a buffer for each output bit, with room for every word
+     */
+    static void fill( int bitCount, IntUnaryOperator operator, boolean parallel, LongBuffer... words )
+    {
+        int outputCount = words.length;
+        int size = 1 << bitCount;
+        int wordCount = ( size + 63 ) >>> 6;
 
-        // Pick a bit that is set but is not part of an existing expression (yet).
-        for ( int i = todo.nextSetBit( 0 ); i >= 0; i = todo.nextSetBit( i + 1 ) )
+        IntStream tasks = IntStream.range( 0, ( wordCount + WORDS_PER_TASK - 1 ) / WORDS_PER_TASK );
+        if ( parallel )
         {
-            int output = i;
-
-            // Make an expression to match this output combination alone.
-            List< BitState > allBits =
-                IntStream.range( 0, this.bitCount )
-                         .mapToObj( bit -> ( ( output & ( 1 << bit ) ) != 0 ? BitState.TRUE : BitState.FALSE ) )
-                         .collect( Collectors.toCollection( ArrayList::new ) );
+            tasks = tasks.parallel();
+        }
 
-            // Try dropping each of the bits to see if it still works.
-            for ( ListIterator< BitState > iterator = allBits.listIterator(); iterator.hasNext(); )
+        // Each task owns its own range of words, so no two write the same word.
+        tasks.forEach( task ->
+        {
+            long[] bits = new long[ outputCount ];
+            int end = Math.min( wordCount, ( task + 1 ) * WORDS_PER_TASK );
+            for ( int word = task * WORDS_PER_TASK; word < end; word++ )
             {
-                BitState oldState = iterator.next();
-
-                // Speculatively try dropping.
-                iterator.set( BitState.DONT_CARE );
-
-                if ( !And.of( allBits ).testAll( this.table, this.bitCount ) )
+                int first = word << 6;
+                int last = Math.min( size, first + 64 );
+                for ( int input = first; input < last; input++ )
+                {
+                    int result = operator.applyAsInt( input );
+                    int position = input & 63;
+                    for ( int j = 0; j < outputCount; j++ )
+                    {
+                        bits[ j ] |= (long) ( ( result >>> j ) & 1 ) << position;
+                    }
+                }
+                for ( int j = 0; j < outputCount; j++ )
                 {
-                    // Ah, can't remove this one.  Revert back.
-                    iterator.set( oldState );
+                    words[ j ].put( word, bits[ j ] );
+                    bits[ j ] = 0;
                 }
             }
+        } );
+    }
+
+    /**
+     * Optimises the table into an expression formed of an OR of ANDs, using the
+     * {@link GreedyMinimiser}.
+     *
+     * @return an expression
+     */
+    public Expression optimise()
+    {
+        return optimise( new GreedyMinimiser() );
+    }
 
-            And and = And.of( allBits );
-            results.add( and );
+    /**
+     * Optimises the table into an expression formed of an OR of ANDs.
+     *
+     * @param minimiser
+     *            the minimiser to use
+     * @return an expression
+     */
+    public Expression optimise( Minimiser minimiser )
+    {
+        return expression( this.name, minimiser.minimise( this.table.toLongArray(), this.bitCount ) );
+    }
 
-            // Mark these bits as done.
-            and.clearAll( todo, this.bitCount );
+    /**
+     * Checks an expression against the table a word at a time: its terms are
+     * painted into a bitmap, which is then compared with the table's words.
+     *
+     * @param expression
+     *            the expression, over the table's inputs
+     * @return the first input where the two differ, or empty if they agree on
+     *         every input
+     */
+    public OptionalInt mismatch( Expression expression )
+    {
+        int wordCount = ( ( 1 << this.bitCount ) + 63 ) >>> 6;
+        long[] painted = new long[ wordCount ];
+        for ( And and : expression.ands() )
+        {
+            // A term needing an input bit beyond the table matches nothing in it.
+            if ( ( and.setMask() >>> this.bitCount ) == 0 )
+            {
+                and.setAll( painted, this.bitCount );
+            }
         }
 
-        assert todo.isEmpty();
+        long[] expected = Arrays.copyOf( this.table.toLongArray(), wordCount );
+        int word = Arrays.mismatch( painted, expected );
+        if ( word < 0 )
+        {
+            return OptionalInt.empty();
+        }
+        return OptionalInt.of( word << 6 | Long.numberOfTrailingZeros( painted[ word ] ^ expected[ word ] ) );
+    }
 
+    /**
+     * @return an expression of the cubes, in {@link And} order
+     */
+    static Expression expression( String name, long[] cubes )
+    {
+        List< And > results = new ArrayList<>( cubes.length );
+        for ( long cube : cubes )
+        {
+            results.add( And.of( cube ) );
+        }
         results.sort( null );
 
-        return new Expression( this.name, results );
+        return new Expression( name, results );
     }
 
     /**
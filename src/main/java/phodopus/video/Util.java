@@ -12,9 +12,12 @@
  */
 package phodopus.video;
 
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.function.Supplier;
 import java.util.stream.IntStream;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 
@@ -52,9 +55,77 @@ public final class Util
         return IntStream.range( start, start + count ).mapToObj( i -> name + i ).toList();
     }
 
+    /**
+     * Optimises tables in parallel on the common fork-join pool, using the
+     * {@link GreedyMinimiser} and the {@link ExpressionCache} given by system
+     * properties, if any. The results are in the same order as the tables.
+     *
+     * @param tables
+     *            the tables
+     * @return an expression for each table
+     */
     public static List< Expression > optimise( List< TruthTable > tables )
     {
-        return tables.stream().map( TruthTable::optimise ).toList();
+        return optimise( tables, DefaultMinimiser.MINIMISER );
+    }
+
+    /**
+     * Optimises tables in parallel on the common fork-join pool. The results are
+     * in the same order as the tables.
+     *
+     * @param tables
+     *            the tables
+     * @param minimiser
+     *            the minimiser to use
+     * @return an expression for each table
+     */
+    public static List< Expression > optimise( List< TruthTable > tables, Minimiser minimiser )
+    {
+        List< Expression > expressions = tables.parallelStream().map( table -> table.optimise( minimiser ) ).toList();
+        verify( tables, expressions );
+        return expressions;
+    }
+
+    /**
+     * Checks expressions against their tables in parallel on the common
+     * fork-join pool, using {@link TruthTable#mismatch(Expression)}.
+     *
+     * @param tables
+     *            the tables
+     * @param expressions
+     *            an expression for each table, in the same order
+     * @throws IllegalStateException
+     *             if any expression differs from its table
+     */
+    public static void verify( List< TruthTable > tables, List< Expression > expressions )
+    {
+        Preconditions.checkArgument( tables.size() == expressions.size(),
+                                     "Expected %s expressions: %s",
+                                     tables.size(),
+                                     expressions.size() );
+
+        IntStream.range( 0, tables.size() ).parallel().forEach( i ->
+        {
+            TruthTable table = tables.get( i );
+            table.mismatch( expressions.get( i ) ).ifPresent( input ->
+            {
+                throw new IllegalStateException( "Expression for " + table.name() + " differs at input " + input );
+            } );
+        } );
+    }
+
+    /**
+     * Builds chips in parallel on the common fork-join pool, so that all their
+     * tables are optimised together. The chips are in the same order as the
+     * builders.
+     *
+     * @param builders
+     *            the chip builders
+     * @return the chips
+     */
+    public static List< Chip > build( List< Supplier< Chip > > builders )
+    {
+        return builders.parallelStream().map( Supplier::get ).toList();
     }
 
     public static < T > List< T > concat( List< T > list, T item )
@@ -80,4 +151,32 @@ public final class Util
             System.out.println();
         }
     }
+
+    /**
+     * Minimiser for {@link #optimise(List)}: the {@link GreedyMinimiser}, cached
+     * if {@link ExpressionCache#DIRECTORY_PROPERTY} is set. Bump the version
+     * whenever the greedy minimiser's output changes. Held apart from
+     * {@link Util} so that a cache that cannot be opened only costs its
+     * speed-up.
+     */
+    private static final class DefaultMinimiser
+    {
+        static final Minimiser MINIMISER = create();
+
+        private static Minimiser create()
+        {
+            try
+            {
+                return ExpressionCache.fromSystemProperties()
+                                      .map( cache -> cache.wrap( "greedy-1", new GreedyMinimiser() ) )
+                                      .orElseGet( GreedyMinimiser::new );
+            }
+            catch ( UncheckedIOException | IllegalArgumentException e )
+            {
+                System.getLogger( Util.class.getName() )
+                      .log( System.Logger.Level.WARNING, "Not caching optimised expressions", e );
+                return new GreedyMinimiser();
+            }
+        }
+    }
 }
@@ -0,0 +1,376 @@
+/* Copyright © 2022 Matthew Wilson
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0
+ * which is available at:
+ * http://www.eclipse.org/legal/epl-2.0
+ * or the GNU General Public License v3.0 or later
+ * which is available at:
+ * https://www.gnu.org/licenses/gpl-3.0.en.html
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-3.0-or-later
+ */
+package phodopus.video;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Streams a {@link Simulation} run as an IEEE 1364 value change dump, for
+ * viewers such as GTKWave. Each recorded state is one cycle.
+ * <p>
+ * Only signals that changed are written. Changes are found by XORing each
+ * packed chip value with its previous value, and then only checking the
+ * signals with bits on chips that changed.
+ */
+public final class VcdWriter extends TraceSink
+{
+    /**
+     * Room for the longest line: a time, or a 32-bit bus and its identifier.
+     */
+    private static final int LINE_SIZE = 64;
+
+    private final byte[][] ids;
+
+    /**
+     * For each signal, for each bit, the chip holding it.
+     */
+    private final int[][] bitChips;
+
+    /**
+     * For each signal, for each bit, its bit within the chip value.
+     */
+    private final int[][] bitShifts;
+
+    /**
+     * For each chip, the signals with bits on it.
+     */
+    private final int[][] chipSignals;
+
+    /**
+     * For each chip, the mask of each of those signals' bits on it.
+     */
+    private final int[][] chipMasks;
+
+    private final int[] previous;
+
+    private final boolean[] dirty;
+
+    private final int[] changed;
+
+    private final byte[] digits = new byte[ 20 ];
+
+    private final long period;
+
+    private long time;
+
+    private VcdWriter( WritableByteChannel channel, int chipCount, List< Signal > signals, long period )
+    {
+        super( channel );
+        this.period = period;
+        this.ids = new byte[ signals.size() ][];
+        this.bitChips = new int[ signals.size() ][];
+        this.bitShifts = new int[ signals.size() ][];
+
+        List< List< Integer > > signalsByChip = new ArrayList<>();
+        List< List< Integer > > masksByChip = new ArrayList<>();
+        for ( int c = 0; c < chipCount; c++ )
+        {
+            signalsByChip.add( new ArrayList<>() );
+            masksByChip.add( new ArrayList<>() );
+        }
+
+        for ( int s = 0; s < signals.size(); s++ )
+        {
+            Signal signal = signals.get( s );
+            this.ids[ s ] = id( s );
+            this.bitChips[ s ] = signal.bits().stream().mapToInt( Simulation.Location::chip ).toArray();
+            this.bitShifts[ s ] = signal.bits().stream().mapToInt( Simulation.Location::bit ).toArray();
+
+            for ( Simulation.Location bit : signal.bits() )
+            {
+                List< Integer > chipSignals = signalsByChip.get( bit.chip() );
+                List< Integer > chipMasks = masksByChip.get( bit.chip() );
+                int index = chipSignals.indexOf( s );
+                if ( index < 0 )
+                {
+                    chipSignals.add( s );
+                    chipMasks.add( 1 << bit.bit() );
+                }
+                else
+                {
+                    chipMasks.set( index, chipMasks.get( index ) | ( 1 << bit.bit() ) );
+                }
+            }
+        }
+
+        this.chipSignals = signalsByChip.stream()
+                                        .map( list -> list.stream().mapToInt( Integer::intValue ).toArray() )
+                                        .toArray( int[][]::new );
+        this.chipMasks = masksByChip.stream()
+                                    .map( list -> list.stream().mapToInt( Integer::intValue ).toArray() )
+                                    .toArray( int[][]::new );
+        this.previous = new int[ chipCount ];
+        this.dirty = new boolean[ signals.size() ];
+        this.changed = new int[ signals.size() ];
+    }
+
+    public static Builder builder( Simulation simulation )
+    {
+        return new Builder( simulation );
+    }
+
+    private record Signal( String name, List< Simulation.Location > bits )
+    {
+    }
+
+    public static final class Builder
+    {
+        private final Simulation simulation;
+
+        private final List< Signal > signals = new ArrayList<>();
+
+        private String module = "video";
+
+        private String timescale = "1 ns";
+
+        private long period = 1;
+
+        private Builder( Simulation simulation )
+        {
+            this.simulation = simulation;
+        }
+
+        /**
+         * @param module
+         *            the name of the scope holding the signals
+         */
+        public Builder module( String module )
+        {
+            this.module = module;
+            return this;
+        }
+
+        /**
+         * @param timescale
+         *            the time unit, which must be 1, 10 or 100 of a unit such
+         *            as {@code "ns"}, as in {@code "10 ns"}
+         */
+        public Builder timescale( String timescale )
+        {
+            this.timescale = timescale;
+            return this;
+        }
+
+        /**
+         * @param period
+         *            the time units per cycle
+         */
+        public Builder period( long period )
+        {
+            Preconditions.checkArgument( period > 0, "Bad period: %s", period );
+            this.period = period;
+            return this;
+        }
+
+        public Builder wire( String pin )
+        {
+            this.signals.add( new Signal( pin, List.of( this.simulation.locate( pin ) ) ) );
+            return this;
+        }
+
+        /**
+         * Adds a bus of the pins {@code prefix + 0} to {@code prefix + (count - 1)},
+         * which may be spread across chips.
+         */
+        public Builder bus( String prefix, int count )
+        {
+            Preconditions.checkArgument( count > 0 && count <= Integer.SIZE, "Bad count: %s", count );
+            List< Simulation.Location > bits = new ArrayList<>();
+            for ( int i = 0; i < count; i++ )
+            {
+                bits.add( this.simulation.locate( prefix + i ) );
+            }
+            this.signals.add( new Signal( prefix, bits ) );
+            return this;
+        }
+
+        public VcdWriter open( Path file ) throws IOException
+        {
+            return open( FileChannel.open( file,
+                                           StandardOpenOption.CREATE,
+                                           StandardOpenOption.WRITE,
+                                           StandardOpenOption.TRUNCATE_EXISTING ) );
+        }
+
+        /**
+         * @param channel
+         *            the channel to write to, closed when the writer is
+         */
+        public VcdWriter open( WritableByteChannel channel )
+        {
+            StringBuilder header = new StringBuilder();
+            header.append( "$version phodopus video $end\n" );
+            header.append( "$timescale " ).append( this.timescale ).append( " $end\n" );
+            header.append( "$scope module " ).append( this.module ).append( " $end\n" );
+            for ( int s = 0; s < this.signals.size(); s++ )
+            {
+                Signal signal = this.signals.get( s );
+                int width = signal.bits().size();
+                header.append( "$var wire " )
+                      .append( width )
+                      .append( ' ' )
+                      .append( new String( id( s ), StandardCharsets.US_ASCII ) )
+                      .append( ' ' )
+                      .append( signal.name() );
+                if ( width > 1 )
+                {
+                    header.append( " [" ).append( width - 1 ).append( ":0]" );
+                }
+                header.append( " $end\n" );
+            }
+            header.append( "$upscope $end\n" );
+            header.append( "$enddefinitions $end\n" );
+
+            VcdWriter writer = new VcdWriter( channel, this.simulation.chips().size(), this.signals, this.period );
+            writer.put( header.toString().getBytes( StandardCharsets.US_ASCII ) );
+            return writer;
+        }
+    }
+
+    /**
+     * @return a short identifier made of printable characters
+     */
+    private static byte[] id( int index )
+    {
+        StringBuilder id = new StringBuilder();
+        int i = index;
+        do
+        {
+            id.append( (char) ( '!' + i % 94 ) );
+            i /= 94;
+        }
+        while ( i > 0 );
+        return id.toString().getBytes( StandardCharsets.US_ASCII );
+    }
+
+    @Override
+    void record( int[] values )
+    {
+        if ( this.time == 0 )
+        {
+            putTime();
+            put( "$dumpvars\n".getBytes( StandardCharsets.US_ASCII ) );
+            for ( int s = 0; s < this.ids.length; s++ )
+            {
+                putValue( s, values );
+            }
+            put( "$end\n".getBytes( StandardCharsets.US_ASCII ) );
+        }
+        else
+        {
+            int count = 0;
+            for ( int c = 0; c < values.length; c++ )
+            {
+                int difference = values[ c ] ^ this.previous[ c ];
+                if ( difference == 0 )
+                {
+                    continue;
+                }
+
+                int[] signals = this.chipSignals[ c ];
+                int[] masks = this.chipMasks[ c ];
+                for ( int k = 0; k < signals.length; k++ )
+                {
+                    int s = signals[ k ];
+                    if ( ( difference & masks[ k ] ) != 0 && !this.dirty[ s ] )
+                    {
+                        this.dirty[ s ] = true;
+                        this.changed[ count++ ] = s;
+                    }
+                }
+            }
+
+            if ( count > 0 )
+            {
+                putTime();
+                for ( int i = 0; i < count; i++ )
+                {
+                    int s = this.changed[ i ];
+                    this.dirty[ s ] = false;
+                    putValue( s, values );
+                }
+            }
+        }
+
+        System.arraycopy( values, 0, this.previous, 0, values.length );
+        this.time += this.period;
+    }
+
+    private void putTime()
+    {
+        ensure( LINE_SIZE );
+        this.buffer.put( (byte) '#' );
+        long t = this.time;
+        int n = 0;
+        do
+        {
+            this.digits[ n++ ] = (byte) ( '0' + t % 10 );
+            t /= 10;
+        }
+        while ( t > 0 );
+        while ( n > 0 )
+        {
+            this.buffer.put( this.digits[ --n ] );
+        }
+        this.buffer.put( (byte) '\n' );
+    }
+
+    private void putValue( int signal, int[] values )
+    {
+        int[] chips = this.bitChips[ signal ];
+        int[] shifts = this.bitShifts[ signal ];
+        int value = 0;
+        for ( int j = 0; j < chips.length; j++ )
+        {
+            value |= ( ( values[ chips[ j ] ] >>> shifts[ j ] ) & 1 ) << j;
+        }
+
+        ensure( LINE_SIZE );
+        if ( chips.length == 1 )
+        {
+            this.buffer.put( (byte) ( '0' + value ) );
+        }
+        else
+        {
+            // Leading zeros may be left out, but not the last digit.
+            this.buffer.put( (byte) 'b' );
+            for ( int j = Math.max( 0, Integer.SIZE - 1 - Integer.numberOfLeadingZeros( value ) ); j >= 0; j-- )
+            {
+                this.buffer.put( (byte) ( '0' + ( ( value >>> j ) & 1 ) ) );
+            }
+            this.buffer.put( (byte) ' ' );
+        }
+        this.buffer.put( this.ids[ signal ] );
+        this.buffer.put( (byte) '\n' );
+    }
+
+    private void put( byte[] bytes )
+    {
+        for ( int offset = 0; offset < bytes.length; )
+        {
+            ensure( 1 );
+            int length = Math.min( this.buffer.remaining(), bytes.length - offset );
+            this.buffer.put( bytes, offset, length );
+            offset += length;
+        }
+    }
+}
@@ -13,6 +13,7 @@
 package phodopus.video;
 
 import static phodopus.video.Util.bitRange;
+import static phodopus.video.Util.build;
 import static phodopus.video.Util.concat;
 import static phodopus.video.Util.dumpAllExpressions;
 import static phodopus.video.Util.isBetween;
@@ -20,70 +21,139 @@ import static phodopus.video.Util.isEqual;
 import static phodopus.video.Util.isSet;
 import static phodopus.video.Util.optimise;
 
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 
 import phodopus.video.Chip.BitFormatter;
-import phodopus.video.Simulation.State;
+import phodopus.video.Simulation.Bus;
+import phodopus.video.Simulation.Engine;
+import phodopus.video.Simulation.MutableState;
+import phodopus.video.Simulation.Pin;
 
 public final class Video
 {
-    public static void main( String[] args )
+    public static void main( String[] args ) throws IOException
     {
-        Chip hcounter = hcounter();
-        Chip vcounter = vcounter();
-        Chip hflags = hflags();
-        Chip vflags = vflags();
-        Chip addr0 = addr0();
-        Chip addr1 = addr1();
-        Chip pixelconv = pixelconv();
-
-        List< Chip > chips = ImmutableList.of( hcounter, vcounter, hflags, vflags, addr0, addr1, pixelconv );
+        List< Chip > chips = build( ImmutableList.copyOf( chips().values() ) );
         dumpAllExpressions( chips );
 
-        Simulation simulation = Simulation.create( chips );
-        runFullSimulation( simulation );
+        Simulation simulation = Simulation.create( chips, Engine.TABLE );
+        if ( args.length > 0 )
+        {
+            dumpFullSimulation( simulation, Path.of( args[ 0 ] ) );
+        }
+        else
+        {
+            runFullSimulation( simulation );
+        }
+    }
+
+    /**
+     * @return builders for each chip, by name, in the order the chips are built
+     */
+    public static Map< String, Supplier< Chip > > chips()
+    {
+        return ImmutableMap.copyOf( Maps.transformValues( designs(), design -> () -> design.get().build() ) );
+    }
+
+    /**
+     * @return the unoptimised truth tables of each chip, by name, in the same
+     *         order as {@link #chips()}
+     */
+    public static Map< String, Supplier< List< TruthTable > > > tables()
+    {
+        return ImmutableMap.copyOf( Maps.transformValues( designs(), design -> () -> design.get().tables() ) );
+    }
+
+    private static Map< String, Supplier< Design > > designs()
+    {
+        return ImmutableMap.< String, Supplier< Design > >builder()
+                           .put( "hcounter", Video::hcounter )
+                           .put( "vcounter", Video::vcounter )
+                           .put( "hflags", Video::hflags )
+                           .put( "vflags", Video::vflags )
+                           .put( "addr0", Video::addr0 )
+                           .put( "addr1", Video::addr1 )
+                           .put( "pixelconv", Video::pixelconv )
+                           .build();
     }
 
     private static void runFullSimulation( Simulation simulation )
     {
-        State state = simulation.zeroState();
-        state = state.with( "Clear", true ).next();
+        MutableState state = simulation.zeroState().with( "Clear", true ).next().toMutable();
+
+        TraceWriter.Builder builder = TraceWriter.builder( simulation )
+                                                 .decimal( "V0", 10 )
+                                                 .literal( " " )
+                                                 .decimal( "H0", 9 )
+                                                 .literal( " " )
+                                                 .hex( "A8", 7 )
+                                                 .hex( "A0", 8 );
+        for ( String flag : ImmutableList.of( "HE399", "HS", "VIS", "RE", "VS", "VVIS", "VE524", "INCADDR",
+                                              "REPLINE", "REPLINE2", "SETADDR", "AC", "A14INC", "A14REP" ) )
+        {
+            builder.literal( " " ).flag( flag );
+        }
 
+        Bus hBus = simulation.bus( "H", 9 );
+        Pin he399 = simulation.pin( "HE399" );
+        // Flushed rather than closed, since closing would close System.out too.
+        TraceWriter trace = builder.text( Channels.newChannel( System.out ) );
         for ( int i = 0; i < 525 * 400 + 130 * 400; i++ )
         {
-            if ( state.number( "H0", 10 ) == 0 )
+            if ( state.number( hBus ) == 0 && !state.flag( he399 ) )
             {
-                System.out.println();
+                trace.newLine();
             }
 
-            System.out.printf( "%04d %03d %02x%02x %s %s %s %s %s %s %s %s %s %s %s %s %s %s%n",
-                               state.number( "V0", 10 ),
-                               state.number( "H0", 9 ),
-                               state.number( "A8", 7 ),
-                               state.number( "A0", 8 ),
-                               state.formattedFlag( "HE399" ),
-                               state.formattedFlag( "HS" ),
-                               state.formattedFlag( "VIS" ),
-                               state.formattedFlag( "RE" ),
-                               state.formattedFlag( "VS" ),
-                               state.formattedFlag( "VVIS" ),
-                               state.formattedFlag( "VE524" ),
-                               state.formattedFlag( "INCADDR" ),
-                               state.formattedFlag( "REPLINE" ),
-                               state.formattedFlag( "REPLINE2" ),
-                               state.formattedFlag( "SETADDR" ),
-                               state.formattedFlag( "AC" ),
-                               state.formattedFlag( "A14INC" ),
-                               state.formattedFlag( "A14REP" ) );
-            state = state.next();
+            state.trace( trace ).next();
+        }
+        trace.flush();
+    }
+
+    /**
+     * Writes the same run as {@link #runFullSimulation(Simulation)} as a value
+     * change dump, at 40ns a cycle (25MHz, near the 25.175MHz VGA dot clock).
+     */
+    private static void dumpFullSimulation( Simulation simulation, Path file ) throws IOException
+    {
+        MutableState state = simulation.zeroState().with( "Clear", true ).next().toMutable();
+
+        VcdWriter.Builder builder = VcdWriter.builder( simulation )
+                                             .period( 40 )
+                                             .bus( "H", 9 )
+                                             .bus( "V", 10 )
+                                             .bus( "A", 15 )
+                                             .bus( "D", 8 );
+        for ( String flag : ImmutableList.of( "HE399", "HS", "VIS", "RE", "VS", "VVIS", "VE524", "INCADDR",
+                                              "REPLINE", "REPLINE2", "SETADDR", "AC", "A14INC", "A14REP" ) )
+        {
+            builder.wire( flag );
+        }
+
+        try ( VcdWriter vcd = builder.open( file ) )
+        {
+            for ( int i = 0; i < 525 * 400 + 130 * 400; i++ )
+            {
+                state.trace( vcd ).next();
+            }
         }
     }
 
     private static void runAddressSimulation( Simulation simulation )
     {
-        State state = simulation.zeroState().with( "Clear", true );
+        MutableState state = simulation.zeroState().with( "Clear", true ).toMutable();
+        Bus addressBus = simulation.bus( "A", 15 );
+        Bus hBus = simulation.bus( "H", 9 );
+        Bus vBus = simulation.bus( "V", 10 );
 
         int oldAddress = 0;
         int oldH = 0;
@@ -92,10 +162,10 @@ public final class Video
 
         for ( int i = 0; i < 525 * 400 * 2 + 10; i++ )
         {
-            state = state.next();
-            int address = state.number( "A0", 8 ) | ( state.number( "A8", 7 ) << 8 );
-            int h = state.number( "H0", 9 );
-            int v = state.number( "V0", 10 );
+            state.next();
+            int address = state.number( addressBus );
+            int h = state.number( hBus );
+            int v = state.number( vBus );
             if ( address != oldAddress || ( i % ( 525 * 400 ) == 0 ) )
             {
                 if ( i >= 525 * 400 )
@@ -137,7 +207,7 @@ public final class Video
         return ( address & ~( b6 | b7 ) ) | ( ( address & b6 ) << 1 ) | ( ( address & b7 ) >>> 1 );
     }
 
-    private static Chip hcounter()
+    private static Design hcounter()
     {
         List< String > outputNames = concat( bitRange( "H", 9 ), "HE399" );
         List< String > inputs = ImmutableList.of( "Clear" );
@@ -156,15 +226,13 @@ public final class Video
             return counter | he399;
         } );
 
-        List< Expression > outputs = optimise( tables );
-
-        return new Chip( "hcounter",
-                         inputs,
-                         outputs,
-                         new BitFormatter( "[0-8] [9,HE399]" ) );
+        return new Design( "hcounter",
+                           inputs,
+                           tables,
+                           new BitFormatter( "[0-8] [9,HE399]" ) );
     }
 
-    private static Chip vcounter()
+    private static Design vcounter()
     {
         List< String > outputNames = bitRange( "V", 10 );
         List< String > inputs = ImmutableList.of( "HE399", "VE524", "Clear" );
@@ -191,14 +259,13 @@ public final class Video
             return ( ( i & 1023 ) + 1 ) & 1023;
         } );
 
-        List< Expression > outputs = optimise( tables );
-        return new Chip( "vcounter",
-                         inputs,
-                         outputs,
-                         new BitFormatter( "[0-9]" ) );
+        return new Design( "vcounter",
+                           inputs,
+                           tables,
+                           new BitFormatter( "[0-9]" ) );
     }
 
-    private static Chip hflags()
+    private static Design hflags()
     {
         List< String > outputNames = ImmutableList.of( "HS", "VIS", "RE", "INCADDR", "REPLINE", "REPLINE2" );
         // [5..13] [14] [15]
@@ -237,14 +304,13 @@ public final class Video
                                bitCount,
                                i -> isSet( i, 4 ) );
 
-        List< Expression > outputs = optimise( ImmutableList.of( hs, vis, re, incaddr, repline, repline2 ) );
-        return new Chip( "hflags",
-                         inputs,
-                         outputs,
-                         new BitFormatter( "[0,HS] [1,VIS] [2,RE]" ) );
+        return new Design( "hflags",
+                           inputs,
+                           ImmutableList.of( hs, vis, re, incaddr, repline, repline2 ),
+                           new BitFormatter( "[0,HS] [1,VIS] [2,RE]" ) );
     }
 
-    private static Chip vflags()
+    private static Design vflags()
     {
         List< String > outputNames = ImmutableList.of( "VVIS", "VS", "VE524", "SETADDR" );
         // [4..13] [14]
@@ -294,14 +360,13 @@ public final class Video
         // V=124 (gives time for address to be changed by software after vsync)
         TruthTable setaddr = TruthTable.create( "SETADDR", bitCount, i -> isEqual( i, v0, 1023, 124 ) );
 
-        List< Expression > outputs = optimise( ImmutableList.of( vvis, vs, ve524, setaddr ) );
-        return new Chip( "vflags",
-                         inputs,
-                         outputs,
-                         new BitFormatter( "[0,VVIS] [1,VIS] [2,RE], [3,SETADDR]" ) );
+        return new Design( "vflags",
+                           inputs,
+                           ImmutableList.of( vvis, vs, ve524, setaddr ),
+                           new BitFormatter( "[0,VVIS] [1,VIS] [2,RE], [3,SETADDR]" ) );
     }
 
-    private static Chip addr0()
+    private static Design addr0()
     {
         List< String > outputNames = concat( bitRange( "A", 8 ), "AC" );
         // [9..16] [17] [18] [19]
@@ -337,14 +402,13 @@ public final class Video
             return i & mask | ac;
         } );
 
-        List< Expression > outputs = optimise( tables );
-        return new Chip( "addr0",
-                         inputs,
-                         outputs,
-                         new BitFormatter( "[x0-7] [8,AC]" ) );
+        return new Design( "addr0",
+                           inputs,
+                           tables,
+                           new BitFormatter( "[x0-7] [8,AC]" ) );
     }
 
-    private static Chip addr1()
+    private static Design addr1()
     {
         List< String > outputNames = concat( bitRange( "A", 8, 7 ), "A14INC", "A14REP" );
         List< String > inputs = concat( bitRange( "AS", 8, 7 ), "INCADDR", "REPLINE2", "SETADDR", "AC" );
@@ -400,14 +464,13 @@ public final class Video
             return i & mask | a14flags;
         } );
 
-        List< Expression > outputs = optimise( tables );
-        return new Chip( "addr1",
-                         inputs,
-                         outputs,
-                         new BitFormatter( "[x0-6] [7,FUDGE1] [8,FUDGE2]" ) );
+        return new Design( "addr1",
+                           inputs,
+                           tables,
+                           new BitFormatter( "[x0-6] [7,FUDGE1] [8,FUDGE2]" ) );
     }
 
-    private static Chip pixelconv()
+    private static Design pixelconv()
     {
         List< String > outputNames = ImmutableList.of( "R0", "R1", "G0", "G1", "B0", "B1", "E0", "E1", "E2", "E3" );
         List< String > inputs = concat( bitRange( "D", 8 ), "H0", "VIS" );
@@ -463,10 +526,20 @@ public final class Video
             return rgb | ( nibble1 << e0 );
         } );
 
-        List< Expression > outputs = optimise( tables );
-        return new Chip( "pixelconv",
-                         inputs,
-                         outputs,
-                         new BitFormatter( "[0-1] [2-3] [4-5]" ) );
+        return new Design( "pixelconv",
+                           inputs,
+                           tables,
+                           new BitFormatter( "[0-1] [2-3] [4-5]" ) );
+    }
+
+    /**
+     * A chip's truth tables, before they are optimised into its outputs.
+     */
+    private record Design( String name, List< String > inputs, List< TruthTable > tables, BitFormatter formatter )
+    {
+        Chip build()
+        {
+            return new Chip( this.name, this.inputs, optimise( this.tables ), this.formatter );
+        }
     }
 }
@@ -0,0 +1,172 @@
+/* Copyright © 2022 Matthew Wilson
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0
+ * which is available at:
+ * http://www.eclipse.org/legal/epl-2.0
+ * or the GNU General Public License v3.0 or later
+ * which is available at:
+ * https://www.gnu.org/licenses/gpl-3.0.en.html
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-3.0-or-later
+ */
+package phodopus.video;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.IntBinaryOperator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public final class TestBdd
+{
+    private static final int BIT_COUNT = 8;
+
+    private static final int SIZE = 1 << BIT_COUNT;
+
+    @Test
+    public void isEqual()
+    {
+        Bdd bdd = new Bdd();
+        for ( int offset = 0; offset < 4; offset++ )
+        {
+            for ( int mask = 0; mask < 16; mask++ )
+            {
+                // Every desired value within the mask.
+                int desired = 0;
+                do
+                {
+                    int f = bdd.isEqual( offset, mask, desired );
+                    for ( int i = 0; i < SIZE; i++ )
+                    {
+                        Assert.assertEquals( Util.isEqual( i, offset, mask, desired ), bdd.evaluate( f, i ) );
+                    }
+                    desired = ( desired - mask ) & mask;
+                }
+                while ( desired != 0 );
+            }
+        }
+    }
+
+    @Test
+    public void isBetween()
+    {
+        Bdd bdd = new Bdd();
+        for ( int offset = 0; offset < 4; offset++ )
+        {
+            for ( int mask : new int[] { 1, 3, 7, 15 } )
+            {
+                for ( int from = 0; from <= mask + 1; from++ )
+                {
+                    for ( int to = 0; to <= mask + 2; to++ )
+                    {
+                        int f = bdd.isBetween( offset, mask, from, to );
+                        for ( int i = 0; i < SIZE; i++ )
+                        {
+                            Assert.assertEquals( Util.isBetween( i, offset, mask, from, to ), bdd.evaluate( f, i ) );
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void lessThan()
+    {
+        Bdd bdd = new Bdd();
+        for ( int offset = 0; offset < 4; offset++ )
+        {
+            for ( int mask : new int[] { 1, 3, 7, 15 } )
+            {
+                for ( int limit = -1; limit <= mask + 2; limit++ )
+                {
+                    int f = bdd.lessThan( offset, mask, limit );
+                    for ( int i = 0; i < SIZE; i++ )
+                    {
+                        Assert.assertEquals( ( ( i >>> offset ) & mask ) < limit, bdd.evaluate( f, i ) );
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void and()
+    {
+        assertOperation( Bdd::and, ( a, b ) -> a & b );
+    }
+
+    @Test
+    public void or()
+    {
+        assertOperation( Bdd::or, ( a, b ) -> a | b );
+    }
+
+    @Test
+    public void xor()
+    {
+        assertOperation( Bdd::xor, ( a, b ) -> a ^ b );
+    }
+
+    @Test
+    public void not()
+    {
+        Bdd bdd = new Bdd();
+        for ( TruthTable table : tables() )
+        {
+            int f = bdd.not( bdd.fromWords( table.table().toLongArray(), BIT_COUNT ) );
+            for ( int i = 0; i < SIZE; i++ )
+            {
+                Assert.assertEquals( !table.table().get( i ), bdd.evaluate( f, i ) );
+            }
+        }
+    }
+
+    private interface Operation
+    {
+        int apply( Bdd bdd, int f, int g );
+    }
+
+    /**
+     * Checks an operation on every pair of tables against the same operation on
+     * their bits, and that the result is the same node as building it afresh.
+     */
+    private static void assertOperation( Operation operation, IntBinaryOperator bits )
+    {
+        Bdd bdd = new Bdd();
+        for ( TruthTable a : tables() )
+        {
+            for ( TruthTable b : tables() )
+            {
+                int f = operation.apply( bdd,
+                                         bdd.fromWords( a.table().toLongArray(), BIT_COUNT ),
+                                         bdd.fromWords( b.table().toLongArray(), BIT_COUNT ) );
+
+                BitSet expected = new BitSet();
+                for ( int i = 0; i < SIZE; i++ )
+                {
+                    int bit = bits.applyAsInt( a.table().get( i ) ? 1 : 0, b.table().get( i ) ? 1 : 0 );
+                    Assert.assertEquals( bit != 0, bdd.evaluate( f, i ) );
+                    expected.set( i, bit != 0 );
+                }
+
+                // Diagrams are canonical.
+                Assert.assertEquals( bdd.fromWords( expected.toLongArray(), BIT_COUNT ), f );
+            }
+        }
+    }
+
+    private static List< TruthTable > tables()
+    {
+        return ImmutableList.of( TruthTable.create( "false", BIT_COUNT, i -> false ),
+                                 TruthTable.create( "true", BIT_COUNT, i -> true ),
+                                 TruthTable.create( "low", BIT_COUNT, i -> ( i & 3 ) == 1 ),
+                                 TruthTable.create( "range", BIT_COUNT, i -> Util.isBetween( i, 2, 15, 3, 11 ) ),
+                                 TruthTable.create( "hashed-1", BIT_COUNT, i -> Integer.bitCount( i * 0x9E3779B1 ) % 3 == 0 ),
+                                 TruthTable.create( "hashed-2", BIT_COUNT, i -> Integer.bitCount( i * 0x85EBCA6B ) % 2 == 0 ) );
+    }
+}
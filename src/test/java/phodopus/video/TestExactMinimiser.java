@@ -0,0 +1,74 @@
+/* Copyright © 2022 Matthew Wilson
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0
+ * which is available at:
+ * http://www.eclipse.org/legal/epl-2.0
+ * or the GNU General Public License v3.0 or later
+ * which is available at:
+ * https://www.gnu.org/licenses/gpl-3.0.en.html
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-3.0-or-later
+ */
+package phodopus.video;
+
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public final class TestExactMinimiser
+{
+    @Test
+    public void budget()
+    {
+        // Thousands of terms, with prime generation alone taking over a minute.
+        int bitCount = 16;
+        TruthTable table = hashed( bitCount );
+        Duration budget = Duration.ofMillis( 100 );
+
+        long start = System.nanoTime();
+        ExactMinimiser.Result result = new ExactMinimiser( budget ).solve( table.table().toLongArray(), bitCount );
+        long elapsed = System.nanoTime() - start;
+
+        // Generous, so that only a missing deadline check could break it.
+        Assert.assertTrue( "Took " + elapsed / 1_000_000 + "ms", elapsed < Duration.ofSeconds( 10 ).toNanos() );
+        Assert.assertFalse( result.optimal() );
+        Assert.assertTrue( result.lowerBound() >= 1 && result.lowerBound() <= result.cubes().length );
+        Assert.assertFalse( table.mismatch( TruthTable.expression( table.name(), result.cubes() ) ).isPresent() );
+    }
+
+    @Test
+    public void hugeBudget()
+    {
+        TruthTable table = hashed( 6 );
+        for ( Duration budget : new Duration[] { Duration.ofDays( 365L * 300 ), ChronoUnit.FOREVER.getDuration() } )
+        {
+            ExactMinimiser.Result result = new ExactMinimiser( budget ).solve( table.table().toLongArray(), 6 );
+            Assert.assertTrue( result.optimal() );
+            Assert.assertFalse( table.mismatch( TruthTable.expression( table.name(), result.cubes() ) ).isPresent() );
+        }
+    }
+
+    @Test
+    public void primesOfComplements()
+    {
+        long[] primes = ExactMinimiser.primes( new long[] { Cube.of( 1, 1 ), Cube.of( 1, 0 ) } );
+        Assert.assertArrayEquals( new long[] { Cube.of( 0, 0 ) }, primes );
+    }
+
+    @Test
+    public void negativeBudget()
+    {
+        Assert.assertThrows( IllegalArgumentException.class, () -> new ExactMinimiser( Duration.ofMillis( -1 ) ) );
+        Assert.assertThrows( NullPointerException.class, () -> new ExactMinimiser( null ) );
+    }
+
+    private static TruthTable hashed( int bitCount )
+    {
+        return TruthTable.create( "hashed-" + bitCount,
+                                  bitCount,
+                                  i -> Integer.bitCount( i * 0x9E3779B1 ^ ( i >>> 7 ) * 0x85EBCA6B ) % 3 == 0 );
+    }
+}
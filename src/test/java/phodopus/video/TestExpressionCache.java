@@ -0,0 +1,176 @@
+/* Copyright © 2022 Matthew Wilson
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0
+ * which is available at:
+ * http://www.eclipse.org/legal/epl-2.0
+ * or the GNU General Public License v3.0 or later
+ * which is available at:
+ * https://www.gnu.org/licenses/gpl-3.0.en.html
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-3.0-or-later
+ */
+package phodopus.video;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class TestExpressionCache
+{
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private final Minimiser counting = ( words, bitCount ) ->
+    {
+        this.calls.incrementAndGet();
+        return new GreedyMinimiser().minimise( words, bitCount );
+    };
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        this.directory = this.folder.newFolder().toPath();
+    }
+
+    @Test
+    public void missThenHit()
+    {
+        Minimiser cached = ExpressionCache.open( this.directory, 1 << 20 ).wrap( "test-1", this.counting );
+        long[] words = table( 8, 1 );
+
+        long[] first = cached.minimise( words, 8 );
+        Assert.assertEquals( 1, this.calls.get() );
+        Assert.assertArrayEquals( new GreedyMinimiser().minimise( words, 8 ), first );
+
+        long[] second = cached.minimise( words, 8 );
+        Assert.assertEquals( 1, this.calls.get() );
+        Assert.assertArrayEquals( first, second );
+
+        // A new cache on the same directory sees it too.
+        long[] third = ExpressionCache.open( this.directory, 1 << 20 ).wrap( "test-1", this.counting ).minimise( words, 8 );
+        Assert.assertEquals( 1, this.calls.get() );
+        Assert.assertArrayEquals( first, third );
+    }
+
+    @Test
+    public void corruptEntryIsMiss() throws IOException
+    {
+        Minimiser cached = ExpressionCache.open( this.directory, 1 << 20 ).wrap( "test-1", this.counting );
+        long[] words = table( 8, 1 );
+        long[] expected = cached.minimise( words, 8 );
+
+        // Truncated part way through the cubes.
+        Path file = entries().get( 0 );
+        byte[] bytes = Files.readAllBytes( file );
+        Files.write( file, Arrays.copyOf( bytes, bytes.length - 3 ) );
+        Assert.assertArrayEquals( expected, cached.minimise( words, 8 ) );
+        Assert.assertEquals( 2, this.calls.get() );
+
+        // Rewritten whole by the miss.
+        Assert.assertArrayEquals( expected, cached.minimise( words, 8 ) );
+        Assert.assertEquals( 2, this.calls.get() );
+
+        // Not a cover file at all.
+        Files.write( file, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9 } );
+        Assert.assertArrayEquals( expected, cached.minimise( words, 8 ) );
+        Assert.assertEquals( 3, this.calls.get() );
+    }
+
+    @Test
+    public void evictionKeepsWithinBound() throws IOException
+    {
+        long maxBytes = 1024;
+        Minimiser cached = ExpressionCache.open( this.directory, maxBytes ).wrap( "test-1", this.counting );
+        for ( int seed = 0; seed < 50; seed++ )
+        {
+            cached.minimise( table( 8, seed ), 8 );
+            Assert.assertTrue( totalSize() <= maxBytes );
+        }
+        Assert.assertEquals( 50, this.calls.get() );
+        Assert.assertFalse( entries().isEmpty() );
+        Assert.assertTrue( entries().size() < 50 );
+    }
+
+    @Test
+    public void stalePartsAreDeleted() throws IOException
+    {
+        Path stale = Files.createFile( this.directory.resolve( "killed.part" ) );
+        Files.setLastModifiedTime( stale, FileTime.from( Instant.now().minus( Duration.ofHours( 1 ) ) ) );
+        Path fresh = Files.createFile( this.directory.resolve( "writing.part" ) );
+
+        ExpressionCache.open( this.directory, 1 << 20 ).wrap( "test-1", this.counting ).minimise( table( 8, 1 ), 8 );
+        Assert.assertFalse( Files.exists( stale ) );
+        Assert.assertTrue( Files.exists( fresh ) );
+    }
+
+    @Test
+    public void missingDirectoryIsMiss() throws IOException
+    {
+        Minimiser cached = ExpressionCache.open( this.directory, 1 << 20 ).wrap( "test-1", this.counting );
+        Files.delete( this.directory );
+        long[] words = table( 8, 1 );
+
+        Assert.assertArrayEquals( new GreedyMinimiser().minimise( words, 8 ), cached.minimise( words, 8 ) );
+        Assert.assertArrayEquals( new GreedyMinimiser().minimise( words, 8 ), cached.minimise( words, 8 ) );
+        Assert.assertEquals( 2, this.calls.get() );
+    }
+
+    @Test
+    public void versionChangeIsMiss()
+    {
+        ExpressionCache cache = ExpressionCache.open( this.directory, 1 << 20 );
+        long[] words = table( 8, 1 );
+        long[] first = cache.wrap( "test-1", this.counting ).minimise( words, 8 );
+        long[] second = cache.wrap( "test-2", this.counting ).minimise( words, 8 );
+        Assert.assertEquals( 2, this.calls.get() );
+        Assert.assertArrayEquals( first, second );
+    }
+
+    /**
+     * @return words of a table with scattered bits
+     */
+    private static long[] table( int bitCount, int seed )
+    {
+        return TruthTable.create( "table-" + seed,
+                                  bitCount,
+                                  i -> Integer.bitCount( ( i + seed ) * 0x9E3779B1 ) % 3 == 0 )
+                         .table()
+                         .toLongArray();
+    }
+
+    private List< Path > entries() throws IOException
+    {
+        try ( Stream< Path > files = Files.list( this.directory ) )
+        {
+            return files.filter( file -> file.toString().endsWith( ".cubes" ) ).toList();
+        }
+    }
+
+    private long totalSize() throws IOException
+    {
+        long total = 0;
+        for ( Path file : entries() )
+        {
+            total += Files.size( file );
+        }
+        return total;
+    }
+}
@@ -0,0 +1,500 @@
+/* Copyright © 2022 Matthew Wilson
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0
+ * which is available at:
+ * http://www.eclipse.org/legal/epl-2.0
+ * or the GNU General Public License v3.0 or later
+ * which is available at:
+ * https://www.gnu.org/licenses/gpl-3.0.en.html
+ *
+ * SPDX-License-Identifier: EPL-2.0 OR GPL-3.0-or-later
+ */
+package phodopus.video;
+
+import static phodopus.video.Util.bitRange;
+import static phodopus.video.Util.isBetween;
+import static phodopus.video.Util.isSet;
+import static phodopus.video.Util.optimise;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import phodopus.video.Chip.BitFormatter;
+import phodopus.video.Simulation.Engine;
+import phodopus.video.Simulation.MutableState;
+import phodopus.video.Simulation.State;
+
+public final class TestSimulation
+{
+    private static final List< Chip > CHIPS = ImmutableList.of( counter(), flags() );
+
+    @Test
+    public void tableMatchesInterpreted()
+    {
+        assertSameTrace( Engine.TABLE );
+    }
+
+    @Test
+    public void generatedMatchesInterpreted()
+    {
+        assertSameTrace( Engine.GENERATED );
+    }
+
+    @Test
+    public void eventMatchesInterpreted()
+    {
+        assertSameTrace( Engine.EVENT );
+
+        // It patches the results of whatever it last stepped, so try unrelated states too.
+        assertSameStep( CHIPS, Engine.EVENT, 1000 );
+    }
+
+    @Test
+    public void generatedSplitsLargeNetlists()
+    {
+        List< Chip > chips = chain( 200 );
+        Simulation generated = Simulation.create( chips, Engine.GENERATED );
+
+        // Too big for a single step method, so each chip gets its own.
+        Assert.assertTrue( generated.stepper().getClass().getDeclaredMethods().length > 1 );
+
+        assertSameTrace( chips, Engine.GENERATED );
+        assertSameStep( chips, Engine.GENERATED, 100 );
+    }
+
+    @Test
+    public void mutableMatchesImmutable()
+    {
+        State expected = Simulation.create( CHIPS ).randomState();
+        MutableState actual = expected.toMutable();
+        for ( int i = 0; i < 1000; i++ )
+        {
+            expected = expected.next();
+            actual.next();
+            Assert.assertEquals( describe( expected ), describe( actual.snapshot() ) );
+        }
+    }
+
+    @Test
+    public void slicedMatchesScalar()
+    {
+        SlicedSimulation sliced = SlicedSimulation.create( Simulation.create( CHIPS ) );
+        SlicedSimulation.State state = sliced.randomState();
+        for ( int i = 0; i < 100; i++ )
+        {
+            SlicedSimulation.State next = state.next();
+            for ( int lane = 0; lane < SlicedSimulation.LANES; lane++ )
+            {
+                Assert.assertEquals( describe( state.lane( lane ).next() ), describe( next.lane( lane ) ) );
+            }
+            state = next;
+        }
+    }
+
+    @Test
+    public void handlesMatchNames()
+    {
+        Simulation simulation = Simulation.create( CHIPS );
+        Simulation.Bus c = simulation.bus( "C", 6 );
+        Simulation.Bus f = simulation.bus( "F", 3 );
+        Simulation.Pin f2 = simulation.pin( "F2" );
+        Simulation.Pin clear = simulation.pin( "Clear" );
+        for ( int i = 0; i < 100; i++ )
+        {
+            State state = simulation.randomState();
+            Assert.assertEquals( state.number( "C0", 6 ), state.number( c ) );
+            Assert.assertEquals( state.number( "F0", 3 ), state.number( f ) );
+            Assert.assertEquals( state.flag( "F2" ), state.flag( f2 ) );
+
+            Assert.assertEquals( state.withNumber( "C", 6, i ), state.withNumber( c, i ) );
+            Assert.assertEquals( state.with( "Clear", i % 2 == 0 ), state.with( clear, i % 2 == 0 ) );
+            Assert.assertEquals( state.withNumber( "C", 6, i ).toMutable().snapshot(),
+                                 state.toMutable().setNumber( c, i ).snapshot() );
+        }
+    }
+
+    @Test
+    public void orbit()
+    {
+        Simulation simulation = Simulation.create( CHIPS );
+        State start = simulation.zeroState().with( "Clear", true );
+        Simulation.Orbit orbit = simulation.findOrbit( start, 1000 ).orElseThrow();
+        Assert.assertEquals( 48, orbit.period() );
+
+        State state = start;
+        for ( int i = 0; i < 500; i++ )
+        {
+            Assert.assertEquals( state, orbit.at( i ) );
+            state = state.next();
+        }
+    }
+
+    @Test
+    public void stateSpace()
+    {
+        Simulation simulation = Simulation.create( CHIPS, Engine.TABLE );
+        StateSpace.Result result = StateSpace.create( simulation )
+                                             .explore( simulation.zeroState().with( "Clear", true ).next() );
+        Assert.assertTrue( result.lockUpFree() );
+        Assert.assertEquals( 1 << 9, result.stateCount() );
+        Assert.assertEquals( 48, result.loopLength() );
+
+        // Counts above 47 hold, rather than wrapping.
+        List< TruthTable > tables = TruthTable.createMany( ImmutableList.of(), bitRange( "C", 6 ), i ->
+        {
+            int count = i & 63;
+            return count >= 48 ? count : ( count + 1 ) % 48;
+        } );
+        Chip stuck = new Chip( "stuck", ImmutableList.of(), optimise( tables ), new BitFormatter( "[0-5]" ) );
+        Simulation stuckSimulation = Simulation.create( ImmutableList.of( stuck, flags() ) );
+        result = StateSpace.create( stuckSimulation ).explore( stuckSimulation.zeroState() );
+        Assert.assertFalse( result.lockUpFree() );
+
+        List< State > counterexample = result.counterexample();
+        State last = counterexample.get( counterexample.size() - 1 );
+        Assert.assertTrue( counterexample.subList( 0, counterexample.size() - 1 ).contains( last ) );
+        for ( int i = 1; i < counterexample.size(); i++ )
+        {
+            Assert.assertEquals( counterexample.get( i - 1 ).next(), counterexample.get( i ) );
+        }
+        Assert.assertTrue( last.number( "C0", 6 ) >= 48 );
+    }
+
+    @Test
+    public void ternary()
+    {
+        Simulation simulation = Simulation.create( CHIPS );
+        TernarySimulation ternary = TernarySimulation.create( simulation );
+        TernarySimulation.Settling settling = ternary.settle( "Clear", 100 );
+        Assert.assertEquals( ImmutableList.of(), settling.unknown() );
+        Assert.assertEquals( Long.valueOf( 0 ), settling.knownAfter().get( "C0" ) );
+        Assert.assertEquals( Long.valueOf( 1 ), settling.knownAfter().get( "F0" ) );
+        Assert.assertEquals( Long.valueOf( 1 ), settling.knownAfter().get( "F1" ) );
+        Assert.assertEquals( Long.valueOf( 2 ), settling.knownAfter().get( "F2" ) );
+
+        // Without a reset, the counter never becomes known.
+        TernarySimulation.State state = ternary.unknownState().next();
+        Assert.assertFalse( state.isKnown( "C0" ) );
+        Assert.assertFalse( state.next().isKnown( "F2" ) );
+
+        // Once known, it agrees with the two-valued simulation.
+        state = ternary.unknownState().with( "Clear", true ).next().next().next();
+        Assert.assertTrue( state.isKnown() );
+        State expected = simulation.zeroState().with( "Clear", true ).next().next().next();
+        for ( int i = 0; i < 100; i++ )
+        {
+            Assert.assertEquals( describe( expected ), describe( state.toState() ) );
+            Assert.assertEquals( expected.flag( "F2" ), state.flag( "F2" ) );
+            expected = expected.next();
+            state = state.next();
+        }
+    }
+
+    @Test
+    public void traces() throws IOException
+    {
+        Simulation simulation = Simulation.create( CHIPS );
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+
+        StringBuilder expected = new StringBuilder();
+        State state = simulation.zeroState().with( "Clear", true ).next();
+        try ( TraceWriter textTrace = TraceWriter.builder( simulation )
+                                                 .decimal( "C0", 6 )
+                                                 .literal( " " )
+                                                 .hex( "F0", 3 )
+                                                 .literal( " " )
+                                                 .flag( "F2" )
+                                                 .text( Channels.newChannel( text ) );
+              TraceWriter binaryTrace = TraceWriter.builder( simulation )
+                                                   .decimal( "C0", 6 )
+                                                   .flag( "F2" )
+                                                   .binary( Channels.newChannel( binary ) ) )
+        {
+            for ( int i = 0; i < 100; i++ )
+            {
+                expected.append( String.format( "%02d %x %s%n", state.number( "C0", 6 ), state.number( "F0", 3 ),
+                                                state.formattedFlag( "F2" ) ) );
+                state.trace( textTrace ).trace( binaryTrace );
+                state = state.next();
+            }
+        }
+        Assert.assertEquals( expected.toString(), text.toString( StandardCharsets.US_ASCII ) );
+
+        // Header, then a byte per field per cycle.
+        ByteBuffer records = ByteBuffer.wrap( binary.toByteArray() ).order( ByteOrder.LITTLE_ENDIAN );
+        Assert.assertEquals( 0x50565452, records.getInt() );
+        Assert.assertEquals( 1, records.getInt() );
+        Assert.assertEquals( 2, records.getInt() );
+        records.position( records.position() + 2 + 2 + 1 + 2 + 2 + 1 );
+        state = simulation.zeroState().with( "Clear", true ).next();
+        for ( int i = 0; i < 100; i++ )
+        {
+            Assert.assertEquals( state.number( "C0", 6 ), records.get() );
+            Assert.assertEquals( state.flag( "F2" ) ? 1 : 0, records.get() );
+            state = state.next();
+        }
+        Assert.assertFalse( records.hasRemaining() );
+    }
+
+    @Test
+    public void valueChangeDump() throws IOException
+    {
+        Simulation simulation = Simulation.create( CHIPS );
+        ByteArrayOutputStream dump = new ByteArrayOutputStream();
+
+        State state = simulation.zeroState().with( "Clear", true ).next();
+        try ( VcdWriter vcd = VcdWriter.builder( simulation )
+                                       .bus( "C", 6 )
+                                       .wire( "F2" )
+                                       .open( Channels.newChannel( dump ) ) )
+        {
+            for ( int i = 0; i < 100; i++ )
+            {
+                state.trace( vcd );
+                state = state.next();
+            }
+        }
+
+        String[] lines = dump.toString( StandardCharsets.US_ASCII ).split( "\n" );
+        List< String > header = Arrays.asList( lines ).subList( 0, Arrays.asList( lines ).indexOf( "#0" ) );
+        Assert.assertTrue( header.contains( "$var wire 6 ! C [5:0] $end" ) );
+        Assert.assertTrue( header.contains( "$var wire 1 \" F2 $end" ) );
+        Assert.assertEquals( "$enddefinitions $end", header.get( header.size() - 1 ) );
+
+        // Replay the changes, checking each step against the simulation.
+        int c = 0;
+        boolean f2 = false;
+        int time = -1;
+        int flagChanges = 0;
+        state = simulation.zeroState().with( "Clear", true ).next();
+        for ( int l = header.size(); l <= lines.length; l++ )
+        {
+            String line = l < lines.length ? lines[ l ] : "#100";
+            if ( line.startsWith( "#" ) )
+            {
+                int next = Integer.parseInt( line.substring( 1 ) );
+                for ( ; time >= 0 && time < next; time++ )
+                {
+                    Assert.assertEquals( state.number( "C0", 6 ), c );
+                    Assert.assertEquals( state.flag( "F2" ), f2 );
+                    state = state.next();
+                }
+                time = next;
+            }
+            else if ( line.startsWith( "b" ) )
+            {
+                Assert.assertTrue( line.endsWith( " !" ) );
+                c = Integer.parseInt( line.substring( 1, line.length() - 2 ), 2 );
+            }
+            else if ( line.endsWith( "\"" ) )
+            {
+                f2 = line.charAt( 0 ) == '1';
+                flagChanges++;
+            }
+        }
+        Assert.assertEquals( 100, time );
+        Assert.assertTrue( "Expected unchanged values to be left out", flagChanges < 100 );
+    }
+
+    @Test
+    public void display()
+    {
+        // Two lines of two pixels, each byte giving two bits each of R, G and B.
+        byte[] memory = { 0b00_00_11, 0b00_11_00, 0b11_00_00, 0b01_10_11, 0, 0, 0, 0 };
+        Simulation simulation = Simulation.create( ImmutableList.of( scan(), pixel() ) )
+                                          .withMemory( "A", 3, "D", memory );
+        MutableState state = simulation.zeroState().toMutable();
+
+        Display display = Display.create( simulation, 2, 2 );
+        for ( int frame = 0; frame < 3; frame++ )
+        {
+            Assert.assertArrayEquals( new int[] { 0xFF0000, 0x00FF00, 0x0000FF, 0xFFAA55 },
+                                      display.nextFrame( state ) );
+        }
+
+        // Each frame has only four pixels.
+        Display tooBig = Display.create( simulation, 3, 3 );
+        Assert.assertThrows( IllegalStateException.class, () -> tooBig.nextFrame( state ) );
+    }
+
+    @Test
+    public void memoryDataMustBeUndriven()
+    {
+        List< TruthTable > tables = TruthTable.createMany( ImmutableList.of(), bitRange( "D", 8 ), i -> 0 );
+        Chip driver = new Chip( "driver", ImmutableList.of(), optimise( tables ), new BitFormatter( "[0-7]" ) );
+        Simulation simulation = Simulation.create( ImmutableList.of( scan(), pixel(), driver ) );
+        Assert.assertThrows( IllegalArgumentException.class,
+                             () -> simulation.withMemory( "A", 3, "D", new byte[ 8 ] ) );
+    }
+
+    private static void assertSameTrace( Engine engine )
+    {
+        State expected = Simulation.create( CHIPS ).zeroState().with( "Clear", true );
+        State actual = Simulation.create( CHIPS, engine ).zeroState().with( "Clear", true );
+        for ( int i = 0; i < 1000; i++ )
+        {
+            expected = expected.next();
+            actual = actual.next();
+            Assert.assertEquals( describe( expected ), describe( actual ) );
+        }
+    }
+
+    /**
+     * As {@link #assertSameTrace(Engine)}, comparing every chip of a netlist
+     * from the zero state.
+     */
+    private static void assertSameTrace( List< Chip > chips, Engine engine )
+    {
+        State expected = Simulation.create( chips ).zeroState();
+        State actual = Simulation.create( chips, engine ).zeroState();
+        for ( int i = 0; i < 100; i++ )
+        {
+            expected = expected.next();
+            actual = actual.next();
+            for ( int chip = 0; chip < chips.size(); chip++ )
+            {
+                Assert.assertEquals( expected.value( chip ), actual.value( chip ) );
+            }
+        }
+    }
+
+    /**
+     * Checks a single step from each of {@code count} random states, rather
+     * than a trace from one.
+     */
+    private static void assertSameStep( List< Chip > chips, Engine engine, int count )
+    {
+        Simulation interpreted = Simulation.create( chips );
+        Simulation simulation = Simulation.create( chips, engine );
+        for ( int i = 0; i < count; i++ )
+        {
+            State state = interpreted.randomState();
+            int[] values = new int[ chips.size() ];
+            Arrays.setAll( values, state::value );
+
+            State expected = state.next();
+            State actual = simulation.state( values ).next();
+            for ( int chip = 0; chip < chips.size(); chip++ )
+            {
+                Assert.assertEquals( expected.value( chip ), actual.value( chip ) );
+            }
+        }
+    }
+
+    private static String describe( State state )
+    {
+        return state.number( "C0", 6 ) + " " + state.number( "F0", 3 );
+    }
+
+    /**
+     * Counts 0..47 then wraps, with a synchronous clear.
+     */
+    private static Chip counter()
+    {
+        List< String > outputNames = bitRange( "C", 6 );
+        List< String > inputs = ImmutableList.of( "Clear" );
+        int clear = outputNames.size();
+
+        List< TruthTable > tables = TruthTable.createMany( inputs, outputNames, i ->
+        {
+            int count = i & 63;
+            return isSet( i, clear ) || count >= 47 ? 0 : count + 1;
+        } );
+
+        return new Chip( "counter", inputs, optimise( tables ), new BitFormatter( "[0-5]" ) );
+    }
+
+    /**
+     * Registered decodes of the counter, including one that feeds back on itself.
+     */
+    private static Chip flags()
+    {
+        List< String > outputNames = bitRange( "F", 3 );
+        List< String > inputs = bitRange( "C", 6 );
+        int c0 = outputNames.size();
+
+        List< TruthTable > tables = TruthTable.createMany( inputs, outputNames, i ->
+        {
+            int f0 = isBetween( i, c0, 63, 10, 20 ) ? 1 : 0;
+            int f1 = isSet( i, c0 ) ? 2 : 0;
+            int f2 = isSet( i, 0 ) != isSet( i, 1 ) ? 4 : 0;
+            return f0 | f1 | f2;
+        } );
+
+        return new Chip( "flags", inputs, optimise( tables ), new BitFormatter( "[0-2]" ) );
+    }
+
+    /**
+     * A ring of 4-in/4-out chips, each mixing the previous chip's outputs into
+     * its own.
+     */
+    private static List< Chip > chain( int count )
+    {
+        List< TruthTable > tables = TruthTable.createMany( bitRange( "I", 4 ), bitRange( "O", 4 ), i ->
+        {
+            int own = i & 15;
+            int previous = i >>> 4;
+            return ( own * 3 + ( previous ^ 5 ) + 1 ) & 15;
+        } );
+        List< Expression > expressions = optimise( tables );
+
+        ImmutableList.Builder< Chip > chips = ImmutableList.builder();
+        for ( int c = 0; c < count; c++ )
+        {
+            String prefix = "N" + c + "_";
+            List< Expression > outputs = new ArrayList<>();
+            for ( int j = 0; j < expressions.size(); j++ )
+            {
+                outputs.add( new Expression( prefix + j, expressions.get( j ).ands() ) );
+            }
+            List< String > inputs = bitRange( "N" + ( c + count - 1 ) % count + "_", 4 );
+            chips.add( new Chip( "chain" + c, inputs, outputs, new BitFormatter( "[0-3]" ) ) );
+        }
+        return chips.build();
+    }
+
+    /**
+     * Scans addresses 0..7 of video RAM, the first four of each pass being
+     * visible.
+     */
+    private static Chip scan()
+    {
+        List< String > outputNames = Util.concat( bitRange( "A", 3 ), "VIS", "VVIS" );
+
+        List< TruthTable > tables = TruthTable.createMany( ImmutableList.of(), outputNames, i ->
+        {
+            int address = ( i + 1 ) & 7;
+            return address < 4 ? address | 3 << 3 : address;
+        } );
+
+        return new Chip( "scan", ImmutableList.of(), optimise( tables ), new BitFormatter( "[0-2] [3,VIS] [4,VVIS]" ) );
+    }
+
+    /**
+     * Registers the RGB outputs from the data read from video RAM.
+     */
+    private static Chip pixel()
+    {
+        List< String > outputNames = ImmutableList.of( "R0", "R1", "G0", "G1", "B0", "B1" );
+        List< String > inputs = bitRange( "D", 8 );
+        int d0 = outputNames.size();
+
+        List< TruthTable > tables = TruthTable.createMany( inputs, outputNames, i -> ( i >>> d0 ) & 63 );
+
+        return new Chip( "pixel", inputs, optimise( tables ), new BitFormatter( "[0-5]" ) );
+    }
+}
@@ -12,12 +12,22 @@
  */
 package phodopus.video;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.OptionalInt;
 import java.util.stream.IntStream;
 
 import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 import org.junit.runners.Parameterized.Parameters;
@@ -27,6 +37,9 @@ import com.google.common.collect.ImmutableList;
 @RunWith( Parameterized.class )
 public final class TestTruthTableOptimise
 {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
     private final TruthTable table;
 
     public TestTruthTableOptimise( TruthTable table )
@@ -43,15 +56,98 @@ public final class TestTruthTableOptimise
     @Test
     public void optimise()
     {
+        assertEquivalent( this.table.optimise() );
+    }
+
+    @Test
+    public void optimiseEspresso()
+    {
+        Expression expression = this.table.optimise( new EspressoMinimiser() );
+        assertEquivalent( expression );
+        Assert.assertTrue( expression.ands().size() <= this.table.optimise().ands().size() );
+    }
+
+    @Test
+    public void optimiseExact()
+    {
+        Assume.assumeTrue( this.table.bitCount() <= 12 );
+
+        // Small tables are solved outright; larger random ones run out of time.
+        Duration budget = this.table.bitCount() <= 7 ? ChronoUnit.FOREVER.getDuration() : Duration.ofMillis( 500 );
+        ExactMinimiser.Result result = new ExactMinimiser( budget )
+                                           .solve( this.table.table().toLongArray(), this.table.bitCount() );
+        Assert.assertTrue( result.lowerBound() <= result.cubes().length );
+
+        Expression expression = this.table.optimise( ( words, bitCount ) -> result.cubes() );
+        assertEquivalent( expression );
+        // The start cover is always finished, however little time is left.
+        Assert.assertTrue( expression.ands().size() <= this.table.optimise().ands().size() );
+        if ( this.table.bitCount() <= 7 )
+        {
+            Assert.assertTrue( result.optimal() );
+            Assert.assertTrue( expression.ands().size()
+                               <= this.table.optimise( new EspressoMinimiser() ).ands().size() );
+        }
+    }
+
+    @Test
+    public void optimiseBdd()
+    {
+        Bdd bdd = new Bdd();
+        int function = bdd.fromWords( this.table.table().toLongArray(), this.table.bitCount() );
+        Expression expression = bdd.expression( this.table.name(), function );
+        assertEquivalent( expression );
+
+        // Diagrams are canonical, so rebuilding from the cover gives the same node.
+        Assert.assertEquals( function, bdd.fromExpression( expression ) );
+    }
+
+    @Test
+    public void optimiseMapped() throws IOException
+    {
+        Path file = this.folder.newFile().toPath();
+        MappedTruthTable mapped = MappedTruthTable.create( this.table.name(),
+                                                           this.table.bitCount(),
+                                                           this.table.table()::get,
+                                                           file );
+        Assert.assertEquals( this.table.optimise().ands(), mapped.optimise().ands() );
+        Assert.assertEquals( Files.size( file ), ( ( 1L << this.table.bitCount() ) + 63 ) / 64 * Long.BYTES );
+    }
+
+    @Test
+    public void mismatch()
+    {
+        Assume.assumeTrue( this.table.bitCount() <= 16 );
+
+        // Break the expression by dropping a term, or by matching one more input.
         Expression expression = this.table.optimise();
+        List< And > ands = expression.ands();
+        List< Expression > broken = new ArrayList<>();
+        broken.add( expression );
+        broken.add( new Expression( "dropped", ands.subList( Math.min( 1, ands.size() ), ands.size() ) ) );
 
         int size = 1 << this.table.bitCount();
-        for ( int i = 0; i < size; i++ )
+        int extra = this.table.table().nextClearBit( 0 );
+        if ( extra < size )
+        {
+            broken.add( new Expression( "extra", Util.concat( ands, And.of( Cube.minterm( extra, this.table.bitCount() ) ) ) ) );
+        }
+
+        for ( Expression candidate : broken )
         {
-            Assert.assertEquals( this.table.table().get( i ), expression.evaluate( i ) );
+            OptionalInt expected = IntStream.range( 0, size )
+                                            .filter( i -> this.table.table().get( i ) != candidate.evaluate( i ) )
+                                            .findFirst();
+            Assert.assertEquals( expected, this.table.mismatch( candidate ) );
         }
     }
 
+    private void assertEquivalent( Expression expression )
+    {
+        OptionalInt mismatch = this.table.mismatch( expression );
+        Assert.assertFalse( "Differs at input " + mismatch, mismatch.isPresent() );
+    }
+
     private static List< TruthTable > makeTables( int bitCount )
     {
         TruthTable allFalse = TruthTable.create( "all-false-" + bitCount,